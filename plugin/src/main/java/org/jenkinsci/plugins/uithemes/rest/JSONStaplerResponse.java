@@ -44,6 +44,6 @@ public class JSONStaplerResponse implements HttpResponse {
 
     public void generateResponse(StaplerRequest staplerRequest, StaplerResponse staplerResponse, Object node) throws IOException, ServletException {
         staplerResponse.setContentType("application/json; charset=UTF-8");
-        JSONReadWrite.jsonMapper.writeValue(staplerResponse.getOutputStream(), object);
+        JSONReadWrite.toUTF8Stream(object, staplerResponse.getOutputStream());
     }
 }
@@ -27,6 +27,7 @@ import hudson.Extension;
 import hudson.model.Action;
 import hudson.model.TransientUserActionFactory;
 import hudson.model.User;
+import jenkins.model.Jenkins;
 import org.jenkinsci.plugins.uithemes.UIThemesProcessor;
 import org.jenkinsci.plugins.uithemes.model.UITheme;
 import org.jenkinsci.plugins.uithemes.model.UIThemeImplSpec;
@@ -109,6 +110,29 @@ public class UIThemesRestAPI extends TransientUserActionFactory implements Actio
         }
     }
 
+    /**
+     * Get the theme contributions that recently failed to compile (and are not being recompiled).
+     * <p/>
+     * Requires {@link Jenkins#ADMINISTER} permission.
+     * @param req The HTTP request.
+     * @return List of {@link org.jenkinsci.plugins.uithemes.model.UIThemeContributionFailure}, JSON serialized.
+     */
+    public final HttpResponse doFailures(StaplerRequest req) {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+
+        String method = req.getMethod().toUpperCase();
+
+        try {
+            if (method.equals("GET")) {
+                return new JSONStaplerResponse(StatusResponse.OK(UIThemesProcessor.getInstance().getContributionFailures()));
+            } else {
+                return new JSONStaplerResponse(StatusResponse.ERROR(String.format("Unsupported '%s' operation.", method)));
+            }
+        } catch (Exception e) {
+            return new JSONStaplerResponse(StatusResponse.ERROR(e));
+        }
+    }
+
     /**
      * Get the {@link UIThemeImplSpec} for a named theme implementation.
      * @param req The HTTP request. Request must contain {@code theme-name} and {@code theme-impl-name} params.
@@ -202,7 +226,7 @@ public class UIThemesRestAPI extends TransientUserActionFactory implements Actio
     }
 
     private void deleteUserThemeCSS() {
-        UIThemesProcessor.getUserThemesCSSFile(userHome).delete();
+        UIThemesProcessor.getInstance().deleteUserThemesCSS(userHome);
     }
 
     private UIThemeImplementation getThemeImpl(StaplerRequest req) throws IllegalArgumentException {
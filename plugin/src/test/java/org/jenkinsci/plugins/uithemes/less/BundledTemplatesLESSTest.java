@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins UI Themes plugin contributors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.uithemes.less;
+
+import org.jenkinsci.plugins.uithemes.UIThemesPlugin;
+import org.jenkinsci.plugins.uithemes.model.UITheme;
+import org.jenkinsci.plugins.uithemes.model.UIThemeContribution;
+import org.jenkinsci.plugins.uithemes.model.UIThemeImplementation;
+import org.jenkinsci.plugins.uithemes.model.UIThemeSet;
+import org.jenkinsci.plugins.uithemes.util.JenkinsUtil;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.lesscss.LessException;
+import org.lesscss.LessSource;
+import org.lesscss.Resource;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Checks the {@link JavaLESSCompiler} against the Rhino LESS engine, for every theme contribution template bundled
+ * with the plugin (compiled with its default configuration).
+ */
+public class BundledTemplatesLESSTest {
+
+    private LESSProcessor rhinoProcessor;
+    private JavaLESSCompiler javaCompiler;
+
+    @Before
+    public void setup() throws IOException {
+        JenkinsUtil.JENKINS_USER_HOME = new File("./target/jenkins-home/users");
+        JenkinsUtil.JENKINS_ANONYMOUS_USER_HOME = new File(JenkinsUtil.JENKINS_USER_HOME, "anonymous");
+        JenkinsUtil.JENKINS_ANONYMOUS_USER_HOME.mkdirs();
+
+        Properties variables = new Properties();
+        variables.setProperty("rootURL", "/jenkins");
+        JenkinsUtil.createJenkinsEnvVariablesLESSFile(variables);
+
+        rhinoProcessor = new LESSProcessor(1, LESSProcessor.CHECKOUT_TIMEOUT).setEngine(LESSProcessor.ENGINE_RHINO);
+        javaCompiler = new JavaLESSCompiler();
+    }
+
+    @Test
+    public void test_java_engine_matches_rhino() throws IOException {
+        UIThemeSet themeSet = new BundledThemeSet();
+        int templateCount = 0;
+
+        new UIThemesPlugin().contribute(themeSet);
+        for (String themeName : themeSet.getThemeNames()) {
+            UITheme theme = themeSet.getTheme(themeName);
+            for (String themeImplName : theme.getThemeImplNames()) {
+                UIThemeImplementation impl = theme.getImpl(themeImplName);
+                for (UIThemeContribution contribution : impl.getContributions()) {
+                    if (contribution.getTemplateDigest() != null) {
+                        assertEquivalent(contribution, impl);
+                        templateCount++;
+                    }
+                }
+            }
+        }
+
+        // Make sure the templates were actually found.
+        Assert.assertTrue(templateCount > 0);
+    }
+
+    /**
+     * Compile the contribution with both engines. The Java engine must either produce the same CSS as Rhino, or
+     * reject the LESS (in which case the LESSProcessor falls back to Rhino). If Rhino can't compile it, neither
+     * can the Java engine.
+     */
+    private void assertEquivalent(UIThemeContribution contribution, UIThemeImplementation impl) throws IOException {
+        Map<String, String> config = contribution.getCompileConfig(impl, UIThemeContribution.getDefaultConfig(impl));
+        Resource lessResource = contribution.createLessResource(JenkinsUtil.JENKINS_ANONYMOUS_USER_HOME, config);
+        LessSource lessSource;
+        String rhinoCSS = null;
+        String javaCSS;
+
+        try {
+            lessSource = new LessSource(lessResource);
+        } catch (FileNotFoundException e) {
+            // Imports LESS resources only available from Jenkins core at runtime. The same for both engines.
+            return;
+        }
+        try {
+            rhinoCSS = rhinoProcessor.process(lessResource);
+        } catch (LessException e) {
+            // Checked below.
+        }
+        try {
+            javaCSS = javaCompiler.compile(lessSource.getNormalizedContent());
+        } catch (LessException e) {
+            // Not supported by the Java engine. Falls back to Rhino.
+            return;
+        }
+
+        Assert.assertNotNull(String.format("Java engine compiled '%s', but Rhino did not.", contribution.getQName()), rhinoCSS);
+        Assert.assertEquals(String.format("Java and Rhino engine CSS differ for '%s'.", contribution.getQName()), normalize(rhinoCSS), normalize(javaCSS));
+    }
+
+    /**
+     * Ignore insignificant whitespace differences i.e. indentation and blank lines.
+     */
+    private static String normalize(String css) {
+        StringBuilder normalized = new StringBuilder();
+        for (String line : css.split("\n")) {
+            line = line.trim();
+            if (line.length() > 0) {
+                normalized.append(line).append('\n');
+            }
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Theme set that registers the plugin's themes on demand, since they are typically registered by
+     * Jenkins core.
+     */
+    private static class BundledThemeSet extends UIThemeSet {
+        @Override
+        public UIThemeImplementation registerThemeImpl(String themeName, String themeImplName, String themeImplTitle, String themeImplDescription) {
+            registerTheme(themeName, themeName);
+            return super.registerThemeImpl(themeName, themeImplName, themeImplTitle, themeImplDescription);
+        }
+
+        @Override
+        public boolean contribute(UIThemeContribution contribution) {
+            registerTheme(contribution.getThemeName(), contribution.getThemeName());
+            return super.contribute(contribution);
+        }
+    }
+}
@@ -34,13 +34,20 @@ import hudson.model.RootAction;
 import hudson.model.User;
 import jenkins.model.Jenkins;
 import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.uithemes.css.ThemesCSS;
+import org.jenkinsci.plugins.uithemes.css.ThemesCSSStore;
 import org.jenkinsci.plugins.uithemes.jelly.CSSStaplerResponse;
+import org.jenkinsci.plugins.uithemes.less.LESSCompileRetryableException;
 import org.jenkinsci.plugins.uithemes.less.LESSProcessor;
+import org.jenkinsci.plugins.uithemes.less.URLResource;
 import org.jenkinsci.plugins.uithemes.model.UITheme;
 import org.jenkinsci.plugins.uithemes.model.UIThemeContribution;
+import org.jenkinsci.plugins.uithemes.model.UIThemeContributionFailure;
 import org.jenkinsci.plugins.uithemes.model.UIThemeImplementation;
 import org.jenkinsci.plugins.uithemes.model.UIThemeSet;
 import org.jenkinsci.plugins.uithemes.model.UserUIThemeConfiguration;
+import org.jenkinsci.plugins.uithemes.util.BoundedCache;
+import org.jenkinsci.plugins.uithemes.util.DigestUtil;
 import org.jenkinsci.plugins.uithemes.util.JSONReadWrite;
 import org.jenkinsci.plugins.uithemes.util.JenkinsUtil;
 import org.jenkinsci.plugins.uithemes.util.TemplateUtil;
@@ -50,13 +57,32 @@ import org.lesscss.Resource;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URL;
 import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.security.CodeSource;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -67,18 +93,104 @@ import java.util.logging.Logger;
 public final class UIThemesProcessor implements RootAction {
 
     private static final Logger LOGGER = Logger.getLogger(UIThemesProcessor.class.getName());
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Maximum size (in bytes) of the in-memory theme CSS cache.
+     */
+    public static final long CSS_CACHE_MAX_BYTES = Long.getLong(UIThemesProcessor.class.getName() + ".cssCacheMaxBytes", 32 * 1024 * 1024);
+
+    /**
+     * Serve the user's previous theme CSS (or the anonymous user's theme CSS) while the user's theme CSS is
+     * regenerated in the background, instead of blocking the request on the regeneration.
+     */
+    public static final boolean STALE_WHILE_REVALIDATE = Boolean.getBoolean(UIThemesProcessor.class.getName() + ".staleWhileRevalidate");
+
+    /**
+     * Maximum number of background theme CSS regeneration threads (stale-while-revalidate mode).
+     */
+    public static final int REGENERATION_THREADS = Integer.getInteger(UIThemesProcessor.class.getName() + ".regenerationThreads", 2);
+
+    /**
+     * Maximum number of queued background theme CSS regenerations (stale-while-revalidate mode).
+     * Regenerations beyond this are dropped, and retried on a later request.
+     */
+    public static final int REGENERATION_QUEUE_SIZE = Integer.getInteger(UIThemesProcessor.class.getName() + ".regenerationQueueSize", 64);
+
+    /**
+     * Number of threads used to compile theme contributions in parallel. Defaults to the number of available processors.
+     */
+    public static final int COMPILE_THREADS = Integer.getInteger(UIThemesProcessor.class.getName() + ".compileThreads", Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Maximum size (in bytes) of the in-memory compiled theme contribution (fragment) cache.
+     */
+    public static final long FRAGMENT_CACHE_MAX_BYTES = Long.getLong(UIThemesProcessor.class.getName() + ".fragmentCacheMaxBytes", 16 * 1024 * 1024);
+
+    /**
+     * Warm up the LESS engine (and generate the default theme CSS) on a background thread after the processor is
+     * created and whenever contributors are added, so the warm-up cost does not land on the first user request.
+     */
+    public static final boolean WARM_UP = Boolean.getBoolean(UIThemesProcessor.class.getName() + ".warmUp");
+
+    /**
+     * How long (in milliseconds) a failed theme contribution compilation is remembered, during which
+     * the contribution is not recompiled (for the same template and configuration).
+     */
+    public static final long FAILED_CONTRIBUTION_TTL = Long.getLong(UIThemesProcessor.class.getName() + ".failedContributionTTL", 10 * 60 * 1000);
+
+    private static final int USER_LOCK_STRIPES = 32;
 
     private static UIThemesProcessor jenkinsThemesProcessor;
 
-    private LESSProcessor lessProcessor;
-    private final List<UIThemeContributor> contributors = new ArrayList<UIThemeContributor>();
+    private final FutureTask<LESSProcessor> lessProcessor = new FutureTask<LESSProcessor>(new Callable<LESSProcessor>() {
+        @Override
+        public LESSProcessor call() {
+            try {
+                return new LESSProcessor();
+            } catch (NoClassDefFoundError e) {
+                LOGGER.log(Level.SEVERE, "UI Themes not supported because LESS processing is not available.");
+                return null;
+            }
+        }
+    });
+    private final List<UIThemeContributor> contributors = new CopyOnWriteArrayList<UIThemeContributor>();
     private volatile UIThemeSet themeSet;
+    private final Map<File, String> userThemesCSSKeys = new ConcurrentHashMap<File, String>();
+    private final BoundedCache<String, ThemesCSS> cssCache = new BoundedCache<String, ThemesCSS>(CSS_CACHE_MAX_BYTES) {
+        @Override
+        protected long weigh(ThemesCSS css) {
+            return css.size();
+        }
+    };
+    private final BoundedCache<String, String> fragmentCache = new BoundedCache<String, String>(FRAGMENT_CACHE_MAX_BYTES) {
+        @Override
+        protected long weigh(String fragment) {
+            return fragment.length() * 2;
+        }
+    };
+    private final ThemesCSSStore cssStore = new ThemesCSSStore(getThemesCSSStoreDir());
+    private final ConcurrentMap<String, FutureTask<ThemesCSS>> inFlightCSS = new ConcurrentHashMap<String, FutureTask<ThemesCSS>>();
+    private final Object[] userLocks = new Object[USER_LOCK_STRIPES];
+    // The theme configuration key of the CSS last served to each user (stale-while-revalidate mode). Only the key is
+    // held here. The CSS itself is read from the (bounded) cssCache or from the cssStore.
+    private final Map<File, String> userStaleCSSKeys = new ConcurrentHashMap<File, String>();
+    private final Map<String, String> pendingRegenerations = new ConcurrentHashMap<String, String>();
+    private final Map<String, UIThemeContributionFailure> contributionFailures = new ConcurrentHashMap<String, UIThemeContributionFailure>();
+    private ThreadPoolExecutor regenerationExecutor;
+    private ThreadPoolExecutor compileExecutor;
+    private ThreadPoolExecutor warmUpExecutor;
+    private boolean staleWhileRevalidate = STALE_WHILE_REVALIDATE;
+    private volatile boolean warmUp = WARM_UP;
 
     public UIThemesProcessor() {
-        try {
-            lessProcessor = new LESSProcessor();
-        } catch (NoClassDefFoundError e) {
-            LOGGER.log(Level.SEVERE, "UI Themes not supported because LESS processing is not available.");
+        for (int i = 0; i < userLocks.length; i++) {
+            userLocks[i] = new Object();
+        }
+        // The LESS processor is created on first use (see getLESSProcessor), or by the background warm-up,
+        // keeping extension loading cheap.
+        if (warmUp) {
+            scheduleWarmUp();
         }
     }
 
@@ -106,6 +218,12 @@ public final class UIThemesProcessor implements RootAction {
         if (contributor != null) {
             contributors.add(contributor);
             themeSet = null; // recreate
+            userThemesCSSKeys.clear(); // recompute
+            URLResource.clearCache();
+            TemplateUtil.clearCache();
+            if (warmUp) {
+                scheduleWarmUp();
+            }
         } else {
             LOGGER.log(Level.WARNING, "Attempted to add a 'null' contributor.", new UnsupportedOperationException());
         }
@@ -115,6 +233,9 @@ public final class UIThemesProcessor implements RootAction {
     public synchronized UIThemesProcessor removeContributor(UIThemeContributor contributor) {
         contributors.remove(contributor);
         themeSet = null; // recreate
+        userThemesCSSKeys.clear(); // recompute
+        URLResource.clearCache();
+        TemplateUtil.clearCache();
         return this;
     }
 
@@ -132,125 +253,905 @@ public final class UIThemesProcessor implements RootAction {
     public void reset() {
         contributors.clear();
         themeSet = null;
+        userThemesCSSKeys.clear();
+        userStaleCSSKeys.clear();
+        cssCache.clear();
+        fragmentCache.clear();
+        contributionFailures.clear();
+        URLResource.clearCache();
+        TemplateUtil.clearCache();
+    }
+
+    public boolean isStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    public UIThemesProcessor setStaleWhileRevalidate(boolean staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        if (!staleWhileRevalidate) {
+            userStaleCSSKeys.clear();
+        }
+        return this;
+    }
+
+    /**
+     * Get the theme contributions that recently failed to compile, and that will not be
+     * recompiled until the failure expires.
+     *
+     * @return The unexpired contribution failures.
+     */
+    public List<UIThemeContributionFailure> getContributionFailures() {
+        List<UIThemeContributionFailure> failures = new ArrayList<UIThemeContributionFailure>();
+
+        for (Map.Entry<String, UIThemeContributionFailure> failure : contributionFailures.entrySet()) {
+            if (failure.getValue().isExpired()) {
+                contributionFailures.remove(failure.getKey());
+            } else {
+                failures.add(failure.getValue());
+            }
+        }
+
+        return failures;
+    }
+
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+
+    public UIThemesProcessor setWarmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+        if (warmUp) {
+            scheduleWarmUp();
+        }
+        return this;
+    }
+
+    /**
+     * Schedule a background warm-up of the LESS engine, followed by generation of the default (anonymous user)
+     * theme CSS.
+     * <p/>
+     * At most one warm-up runs at a time, with at most one more queued behind it, so a burst of contributor
+     * registrations (e.g. at startup) results in a single extra warm-up that sees all of the contributors.
+     */
+    public void scheduleWarmUp() {
+        try {
+            getWarmUpExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    warmUpNow();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.log(Level.FINE, "UI Themes warm-up already queued.");
+        }
+    }
+
+    private void warmUpNow() {
+        long start = System.currentTimeMillis();
+
+        try {
+            LESSProcessor lessProcessor = getLESSProcessor();
+            if (lessProcessor == null) {
+                return;
+            }
+            lessProcessor.warmUp();
+            if (!contributors.isEmpty()) {
+                File anonymousUserHome = JenkinsUtil.JENKINS_ANONYMOUS_USER_HOME;
+                getThemesCSS(getUserThemesCSSKey(anonymousUserHome), anonymousUserHome);
+            }
+            LOGGER.log(Level.FINE, "UI Themes warm-up completed in {0}ms.", System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Error warming up UI Themes.", e);
+        }
     }
 
+    /**
+     * Get the user's theme CSS, generating it if it has not already been generated.
+     * <p/>
+     * The CSS is served from an in-memory cache where possible, avoiding all file system access.
+     *
+     * @param user The user.
+     * @return The user's theme CSS.
+     * @throws IOException Error generating or reading the user's theme CSS.
+     */
+    public ThemesCSS getThemesCSS(User user) throws IOException {
+        File userHome = JenkinsUtil.getJenkinsUserHome(user);
+        String cssKey = getUserThemesCSSKey(userHome);
+
+        if (!staleWhileRevalidate) {
+            return getThemesCSS(cssKey, userHome);
+        }
+
+        File userKey = (userHome != null ? userHome : JenkinsUtil.JENKINS_ANONYMOUS_USER_HOME);
+        ThemesCSS css = getCachedThemesCSS(cssKey);
+
+        if (css == null && !cssStore.contains(cssKey)) {
+            // Needs to be generated. Serve stale CSS if we have it and generate in the background.
+            ThemesCSS staleCSS = getStaleThemesCSS(userKey);
+            if (staleCSS != null) {
+                regenerateThemesCSS(cssKey, userHome);
+                return staleCSS;
+            }
+        }
+        if (css == null) {
+            css = getThemesCSS(cssKey, userHome);
+        }
+
+        if (!css.isProvisional()) {
+            // The key the CSS was generated under (the user is moved to a new key if their configuration changed).
+            String servedCSSKey = userThemesCSSKeys.get(userKey);
+            if (servedCSSKey != null) {
+                userStaleCSSKeys.put(userKey, servedCSSKey);
+            }
+        }
+        return css;
+    }
+
+    /**
+     * Get the user's theme CSS file, generating it if it has not already been generated.
+     * <p/>
+     * Note that the CSS file is in the shared {@link ThemesCSSStore}, so users with the same theme
+     * configuration get the same file.
+     *
+     * @param user The user.
+     * @return The user's theme CSS file.
+     * @throws IOException Error generating the user's theme CSS.
+     */
     public File getUserThemesCSS(User user) throws IOException {
         File userHome = JenkinsUtil.getJenkinsUserHome(user);
 
-        if (userHome == null || !userHome.exists()) {
-            userHome = JenkinsUtil.JENKINS_ANONYMOUS_USER_HOME;
+        // Generating the CSS stores it, and moves the user to a new key if their configuration changed.
+        getThemesCSS(getUserThemesCSSKey(userHome), userHome);
+
+        return cssStore.getCSSFile(getUserThemesCSSKey(userHome));
+    }
+
+    /**
+     * Get the fingerprint of the user's theme CSS, generating the CSS if it has not already been generated.
+     * <p/>
+     * The fingerprint changes whenever the generated CSS changes, so it can be used to build
+     * a versioned (and therefore cacheable forever) CSS URL for the user.
+     *
+     * @param user The user.
+     * @return The CSS fingerprint, or {@code null} if the CSS is {@link ThemesCSS#isProvisional() provisional}.
+     * @throws IOException Error generating the user's theme CSS.
+     */
+    public String getUserThemesCSSFingerprint(User user) throws IOException {
+        ThemesCSS css = getThemesCSS(user);
+
+        if (css.isProvisional()) {
+            return null;
         }
+        return css.getETag();
+    }
 
-        File cssFile = getUserThemesCSSFile(userHome);
+    /**
+     * Get the fingerprint of the user's theme CSS, if the CSS has already been generated.
+     * <p/>
+     * Unlike {@link #getUserThemesCSSFingerprint(User)}, this never blocks on generating the CSS, so it can be used
+     * while rendering a page. If the CSS has not been generated, its generation is started in the background.
+     *
+     * @param user The user.
+     * @return The CSS fingerprint, or {@code null} if the user's theme CSS has not been generated yet (or is
+     * {@link ThemesCSS#isProvisional() provisional}).
+     * @throws IOException Error reading the user's theme CSS.
+     */
+    public String getAvailableUserThemesCSSFingerprint(User user) throws IOException {
+        File userHome = JenkinsUtil.getJenkinsUserHome(user);
+        String cssKey = getUserThemesCSSKey(userHome);
+        ThemesCSS css = getCachedThemesCSS(cssKey);
 
-        if (cssFile.exists()) {
-            return cssFile;
+        if (css == null && cssStore.contains(cssKey)) {
+            css = getThemesCSS(cssKey, userHome);
+        }
+        if (css == null) {
+            regenerateThemesCSS(cssKey, userHome);
+            return null;
+        }
+        if (css.isProvisional()) {
+            // Not fingerprinted. The page links to the (revalidated) unversioned CSS URL instead.
+            return null;
         }
 
-        return generateUIThemeSet(userHome);
+        return css.getETag();
     }
 
+    public ThemesCSSStore getThemesCSSStore() {
+        return cssStore;
+    }
 
     public synchronized void deleteAllUserThemes() {
         LOGGER.log(Level.FINE, "Deleting all user theme styles.");
 
+        userThemesCSSKeys.clear();
+        cssCache.clear();
+        fragmentCache.clear();
+        cssStore.clear();
+
         // Delete the theme css for each user dir
         File[] userHomes = JenkinsUtil.JENKINS_USER_HOME.listFiles();
         if (userHomes != null && userHomes.length > 0) {
             for (File userHome : userHomes) {
                 if (userHome.isDirectory()) {
-                    File cssFile = getUserThemesCSSFile(userHome);
-                    if (cssFile.exists()) {
-                        cssFile.delete();
+                    deleteUserThemesCSS(userHome);
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete the user's theme CSS reference, forcing the user's theme configuration key to be recomputed
+     * (and the CSS to be regenerated if needed) on the next request.
+     *
+     * @param userHome The user home directory.
+     */
+    public void deleteUserThemesCSS(File userHome) {
+        synchronized (getUserLock(userHome)) {
+            userThemesCSSKeys.remove(userHome);
+            FileUtils.deleteQuietly(getUserThemesCSSRefFile(userHome));
+            // Older versions of this plugin stored the generated CSS in the user dir.
+            FileUtils.deleteQuietly(getUserThemesCSSFile(userHome));
+        }
+    }
+
+    public UIThemeSet getUiThemeSet() {
+        UIThemeSet uiThemeSet = themeSet;
+        if (uiThemeSet == null) {
+            synchronized (this) {
+                uiThemeSet = themeSet;
+                if (uiThemeSet == null) {
+                    uiThemeSet = new UIThemeSet();
+                    for (UIThemeContributor contributor : contributors) {
+                        contributor.contribute(uiThemeSet);
                     }
+                    themeSet = uiThemeSet;
                 }
             }
         }
+        return uiThemeSet;
     }
 
-    public synchronized UIThemeSet getUiThemeSet() {
-        if (themeSet == null) {
-            themeSet = new UIThemeSet();
-            for (UIThemeContributor contributor : contributors) {
-                contributor.contribute(themeSet);
+    /**
+     * Get the theme CSS for the specified theme configuration key, loading it from the store or
+     * generating it if it's not already cached.
+     * <p/>
+     * If the CSS needs to be generated, the user's theme configuration is resolved once and the CSS is generated
+     * from, and stored under the key of, that one resolved configuration. If the user's configuration changed since
+     * the key was resolved, the user is moved to the new key.
+     */
+    private ThemesCSS getThemesCSS(String cssKey, File userHome) throws IOException {
+        ThemesCSS css = getStoredThemesCSS(cssKey);
+
+        if (css != null) {
+            return css;
+        }
+
+        ThemesConfiguration themesConfiguration = resolveThemesConfiguration(normalizeUserHome(userHome), JenkinsUtil.getJenkinsEnvVariables());
+        if (!themesConfiguration.getKey().equals(cssKey)) {
+            setUserThemesCSSKey(userHome, themesConfiguration);
+        }
+
+        return getThemesCSS(themesConfiguration);
+    }
+
+    /**
+     * Get the theme CSS for the specified theme configuration key from the in-memory cache, if it's cached
+     * and has not expired.
+     */
+    private ThemesCSS getCachedThemesCSS(String cssKey) {
+        ThemesCSS css = cssCache.get(cssKey);
+
+        if (css != null && css.isExpired()) {
+            // Provisional CSS that needs to be regenerated.
+            cssCache.remove(cssKey);
+            return null;
+        }
+
+        return css;
+    }
+
+    /**
+     * Get the theme CSS for a resolved theme configuration, generating it if it's not already stored.
+     * <p/>
+     * Concurrent requests for the same configuration share a single generation (the first request performs
+     * it and the others wait on its result), while requests for different configurations proceed in parallel.
+     */
+    private ThemesCSS getThemesCSS(final ThemesConfiguration themesConfiguration) throws IOException {
+        final String cssKey = themesConfiguration.getKey();
+        FutureTask<ThemesCSS> task = new FutureTask<ThemesCSS>(new Callable<ThemesCSS>() {
+            @Override
+            public ThemesCSS call() throws Exception {
+                ThemesCSS css = cssStore.load(cssKey);
+                if (css == null) {
+                    css = generateUIThemeSet(themesConfiguration);
+                    if (!css.isProvisional()) {
+                        cssStore.store(cssKey, css);
+                    }
+                }
+                if (!css.isExpired()) {
+                    // Provisional CSS is only cached (in memory) until it expires.
+                    cssCache.put(cssKey, css);
+                }
+                return css;
+            }
+        });
+        FutureTask<ThemesCSS> inFlightTask = inFlightCSS.putIfAbsent(cssKey, task);
+
+        if (inFlightTask == null) {
+            inFlightTask = task;
+            try {
+                task.run();
+            } finally {
+                inFlightCSS.remove(cssKey);
             }
         }
-        return themeSet;
+
+        try {
+            return inFlightTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(String.format("Interrupted while waiting for theme CSS '%s' to be generated.", cssKey), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(String.format("Error generating theme CSS '%s'.", cssKey), cause);
+        }
     }
 
-    private synchronized File generateUIThemeSet(File userHome) throws IOException {
-        userHome = normalizeUserHome(userHome);
+    /**
+     * Get the theme CSS last served to the user, falling back to the anonymous user's theme CSS if
+     * it's available without generating it.
+     */
+    private ThemesCSS getStaleThemesCSS(File userKey) throws IOException {
+        ThemesCSS staleCSS = null;
+        String staleCSSKey = userStaleCSSKeys.get(userKey);
+
+        if (staleCSSKey != null) {
+            staleCSS = getStoredThemesCSS(staleCSSKey);
+        }
+        if (staleCSS == null) {
+            staleCSS = getStoredThemesCSS(getUserThemesCSSKey(JenkinsUtil.JENKINS_ANONYMOUS_USER_HOME));
+        }
 
-        File cssFile = getUserThemesCSSFile(userHome);
-        if (cssFile.exists()) {
-            return cssFile;
+        if (staleCSS != null && staleCSS.isProvisional()) {
+            return null;
         }
+        return staleCSS;
+    }
 
-        if (userHome == JenkinsUtil.JENKINS_ANONYMOUS_USER_HOME) {
-            LOGGER.log(Level.FINE, "Assembling default UI themes.");
+    /**
+     * Get the theme CSS for the specified theme configuration key from the in-memory cache or the store,
+     * without generating it.
+     */
+    private ThemesCSS getStoredThemesCSS(String cssKey) throws IOException {
+        ThemesCSS css = getCachedThemesCSS(cssKey);
+
+        if (css == null) {
+            css = cssStore.load(cssKey);
+            if (css != null) {
+                cssCache.put(cssKey, css);
+            }
+        }
+
+        return css;
+    }
+
+    /**
+     * Regenerate the theme CSS for the specified theme configuration key on the background regeneration executor.
+     * <p/>
+     * At most one regeneration is queued per key. If the executor queue is full, the regeneration is dropped
+     * and will be retried on a later request.
+     */
+    private void regenerateThemesCSS(final String cssKey, final File userHome) {
+        if (pendingRegenerations.put(cssKey, cssKey) != null) {
+            // Already queued/running.
+            return;
+        }
+
+        try {
+            getRegenerationExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        getThemesCSS(cssKey, userHome);
+                    } catch (Exception e) {
+                        LOGGER.log(Level.WARNING, String.format("Error regenerating theme CSS '%s'.", cssKey), e);
+                    } finally {
+                        pendingRegenerations.remove(cssKey);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingRegenerations.remove(cssKey);
+            LOGGER.log(Level.FINE, "Theme CSS regeneration queue full. Dropped regeneration of ''{0}''.", cssKey);
+        }
+    }
+
+    private synchronized ThreadPoolExecutor getRegenerationExecutor() {
+        if (regenerationExecutor == null) {
+            regenerationExecutor = new ThreadPoolExecutor(REGENERATION_THREADS, REGENERATION_THREADS, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(REGENERATION_QUEUE_SIZE), newDaemonThreadFactory("UIThemes CSS regeneration"));
+            regenerationExecutor.allowCoreThreadTimeOut(true);
+        }
+        return regenerationExecutor;
+    }
+
+    /**
+     * Get the executor used to compile theme contributions in parallel.
+     * <p/>
+     * Only ever runs leaf tasks (a single theme contribution compilation), so an unbounded queue cannot deadlock.
+     */
+    private synchronized ThreadPoolExecutor getCompileExecutor() {
+        if (compileExecutor == null) {
+            compileExecutor = new ThreadPoolExecutor(COMPILE_THREADS, COMPILE_THREADS, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), newDaemonThreadFactory("UIThemes LESS compile"));
+            compileExecutor.allowCoreThreadTimeOut(true);
+        }
+        return compileExecutor;
+    }
+
+    private synchronized ThreadPoolExecutor getWarmUpExecutor() {
+        if (warmUpExecutor == null) {
+            warmUpExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(1), newDaemonThreadFactory("UIThemes warm-up"));
+            warmUpExecutor.allowCoreThreadTimeOut(true);
+        }
+        return warmUpExecutor;
+    }
+
+    private static ThreadFactory newDaemonThreadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + " " + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Get the theme configuration key for the user.
+     * <p/>
+     * Resolving the key for a user is guarded by a lock striped on the user home, so different users
+     * are resolved in parallel.
+     */
+    private String getUserThemesCSSKey(File userHome) throws IOException {
+        File userKey = (userHome != null ? userHome : JenkinsUtil.JENKINS_ANONYMOUS_USER_HOME);
+        String cssKey = userThemesCSSKeys.get(userKey);
+
+        if (cssKey == null) {
+            synchronized (getUserLock(userKey)) {
+                cssKey = userThemesCSSKeys.get(userKey);
+                if (cssKey == null) {
+                    cssKey = readUserThemesCSSKey(normalizeUserHome(userHome));
+                    userThemesCSSKeys.put(userKey, cssKey);
+                }
+            }
+        }
+
+        return cssKey;
+    }
+
+    /**
+     * Read the theme configuration key for the user from the user's theme CSS reference file.
+     * <p/>
+     * If the reference file does not exist, or was created for a different set of theme contributions,
+     * the key is recomputed and the reference file is updated.
+     */
+    private String readUserThemesCSSKey(File userHome) throws IOException {
+        File refFile = getUserThemesCSSRefFile(userHome);
+        Properties jenkinsEnv = JenkinsUtil.getJenkinsEnvVariables();
+        String generationDigest = getGenerationDigest(jenkinsEnv);
+
+        if (refFile.exists()) {
+            String[] ref = FileUtils.readFileToString(refFile, UTF8).trim().split("\\s+");
+            if (ref.length == 2 && ref[0].equals(generationDigest) && ThemesCSSStore.isValidKey(ref[1])) {
+                return ref[1];
+            }
+        }
+
+        ThemesConfiguration themesConfiguration = resolveThemesConfiguration(userHome, jenkinsEnv);
+        writeUserThemesCSSRefFile(userHome, themesConfiguration);
+        return themesConfiguration.getKey();
+    }
+
+    /**
+     * Set the user's theme configuration key after their configuration was resolved for (re)generation.
+     */
+    private void setUserThemesCSSKey(File userHome, ThemesConfiguration themesConfiguration) throws IOException {
+        File userKey = (userHome != null ? userHome : JenkinsUtil.JENKINS_ANONYMOUS_USER_HOME);
+
+        synchronized (getUserLock(userKey)) {
+            writeUserThemesCSSRefFile(themesConfiguration.userHome, themesConfiguration);
+            userThemesCSSKeys.put(userKey, themesConfiguration.getKey());
+        }
+    }
+
+    private void writeUserThemesCSSRefFile(File userHome, ThemesConfiguration themesConfiguration) throws IOException {
+        FileUtils.write(getUserThemesCSSRefFile(userHome), themesConfiguration.generationDigest + "\n" + themesConfiguration.getKey() + "\n", UTF8);
+    }
+
+    /**
+     * Resolve the user's theme configuration i.e. the user's theme implementation selections and the effective
+     * configuration of each selected contribution, as read from the user home, along with the Jenkins environment
+     * variables the CSS is to be generated with.
+     * <p/>
+     * The key of the resolved configuration is a hash of everything that goes into generating the user's
+     * theme CSS. Users with the same key get the same CSS.
+     */
+    private ThemesConfiguration resolveThemesConfiguration(File userHome, Properties jenkinsEnv) throws IOException {
+        UIThemeSet themeSet = getUiThemeSet();
+        UserUIThemeConfiguration userThemeConfiguration = UserUIThemeConfiguration.fromUserHome(userHome);
+        ThemesConfiguration themesConfiguration = new ThemesConfiguration(userHome, jenkinsEnv, getGenerationDigest(jenkinsEnv));
+        StringBuilder keyBuilder = new StringBuilder();
+
+        keyBuilder.append("generation: ").append(themesConfiguration.generationDigest).append('\n');
+        for (String themeName : themeSet.getThemeNames()) {
+            UIThemeImplementation impl = getThemeImpl(themeSet.getTheme(themeName), userThemeConfiguration);
+
+            themesConfiguration.themeImpls.put(themeName, impl);
+            keyBuilder.append("theme: ").append(themeName).append('\n');
+            if (impl != null) {
+                keyBuilder.append("impl: ").append(impl.getQName()).append('\n');
+                for (UIThemeContribution themeContribution : impl.getContributions()) {
+                    Map<String, String> config = themeContribution.getEffectiveConfig(userHome, impl);
+                    themesConfiguration.contributionConfigs.put(themeContribution, config);
+                    keyBuilder.append("contribution: ").append(themeContribution.getQName()).append('\n');
+                    keyBuilder.append("template: ").append(themeContribution.getTemplateDigest()).append('\n');
+                    keyBuilder.append("config: ").append(JSONReadWrite.toString(new TreeMap<String, String>(config))).append('\n');
+                }
+            }
         }
+        themesConfiguration.key = DigestUtil.sha1(keyBuilder.toString());
+
+        return themesConfiguration;
+    }
 
+    /**
+     * Compute a digest of the theme contributions and Jenkins environment variables that all generated
+     * theme CSS is based on. Changes when contributors are added/removed/upgraded, or the environment changes.
+     * <p/>
+     * Contributors are identified by version, so the digest does not need to load every contribution template.
+     * The templates of the contributions a user has selected are part of that user's key
+     * (see {@link #resolveThemesConfiguration(File, Properties)}).
+     * <p/>
+     * This is computed on page render (see {@link #getAvailableUserThemesCSSFingerprint(User)}), so it must stay
+     * cheap e.g. it must not create the LESS processor. CSS generated without LESS processing is provisional, so
+     * is never stored under the digest.
+     */
+    private String getGenerationDigest(Properties jenkinsEnv) throws IOException {
         UIThemeSet themeSet = getUiThemeSet();
+        StringBuilder digestBuilder = new StringBuilder();
+
+        digestBuilder.append("env: ").append(new TreeMap<Object, Object>(jenkinsEnv)).append('\n');
+        for (UIThemeContributor contributor : contributors) {
+            digestBuilder.append("contributor: ").append(contributor.getClass().getName())
+                    .append(' ').append(getContributorVersion(contributor.getClass()))
+                    .append('\n');
+        }
+        for (String themeName : themeSet.getThemeNames()) {
+            UITheme theme = themeSet.getTheme(themeName);
+            for (String themeImplName : theme.getThemeImplNames()) {
+                for (UIThemeContribution themeContribution : theme.getThemeImplContributions(themeImplName)) {
+                    digestBuilder.append(themeContribution.getQName())
+                            .append(' ').append(themeContribution.getContributor().getName())
+                            .append(' ').append(getContributorVersion(themeContribution.getContributor()))
+                            .append('\n');
+                }
+            }
+        }
+
+        return DigestUtil.sha1(digestBuilder.toString());
+    }
+
+    /**
+     * Get the version of a theme contributor class i.e. the version of the plugin it comes from or, if it
+     * is not from a plugin (e.g. in a test), the last modified time of the jar/directory it was loaded from.
+     */
+    private static String getContributorVersion(Class<?> contributor) {
+        try {
+            Jenkins jenkins = Jenkins.getInstance();
+            if (jenkins != null) {
+                PluginWrapper plugin = jenkins.getPluginManager().whichPlugin(contributor);
+                if (plugin != null) {
+                    return plugin.getShortName() + ":" + plugin.getVersion();
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Unable to resolve the plugin for theme contributor ''{0}''.", contributor.getName());
+        }
+
+        CodeSource codeSource = contributor.getProtectionDomain().getCodeSource();
+        if (codeSource != null && codeSource.getLocation() != null) {
+            URL location = codeSource.getLocation();
+            if ("file".equals(location.getProtocol())) {
+                return location + ":" + FileUtils.toFile(location).lastModified();
+            }
+            return location.toString();
+        }
+
+        return "unknown";
+    }
+
+    private UIThemeImplementation getThemeImpl(UITheme theme, UserUIThemeConfiguration themeConfiguration) {
+        UIThemeImplementation impl = null;
+
+        if (themeConfiguration != null) {
+            String themeSelection = themeConfiguration.getUserThemeSelection(theme.getName());
+            if (themeSelection != null) {
+                impl = theme.getImpl(themeSelection);
+            }
+        }
+        if (impl == null) {
+            impl = theme.getDefaultImpl();
+        }
+
+        return impl;
+    }
+
+    private ThemesCSS generateUIThemeSet(final ThemesConfiguration themesConfiguration) throws IOException {
+        if (themesConfiguration.userHome == JenkinsUtil.JENKINS_ANONYMOUS_USER_HOME) {
+            LOGGER.log(Level.FINE, "Assembling default UI themes.");
+        }
 
-        UserUIThemeConfiguration themeConfiguration = UserUIThemeConfiguration.fromUserHome(userHome);
         StringBuilder themeStylesBuilder = new StringBuilder();
+        long expiresAt = ThemesCSS.NEVER;
 
         // Create/update the global jenkins variables LESS file
-        JenkinsUtil.createJenkinsEnvVariablesLESSFile();
+        JenkinsUtil.createJenkinsEnvVariablesLESSFile(themesConfiguration.jenkinsEnv);
 
         // Generate the user theme styles based on the available themes and the users
         // theme selections, using the theme default implementation where the user has not made an
-        // implementation selection for a given theme.
-        addGenerationTime(themeStylesBuilder);
+        // implementation selection for a given theme. No generation timestamp is written into the CSS, so
+        // regenerating an unchanged configuration produces the same bytes (and so the same ETag/fingerprint).
+        // The generation time is served in the Last-Modified header instead.
+        //
+        // Compile the theme contributions in parallel, and then assemble them in order. Each contribution is
+        // generated in memory from its own template, so contributions (even to the same implementation)
+        // are independent of each other. The LESS processor is only created if a contribution actually needs
+        // compiling i.e. it is not cached and has no precompiled CSS.
+        List<FutureTask<CompiledContribution>> compiledContributions = new ArrayList<FutureTask<CompiledContribution>>();
+        final String envDigest = DigestUtil.sha1(new TreeMap<Object, Object>(themesConfiguration.jenkinsEnv).toString());
 
-        if (lessProcessor == null) {
-            addLESSProcessingNotAvailable(themeStylesBuilder);
-        } else {
-            for (String themeName : themeSet.getThemeNames()) {
-                UITheme theme = themeSet.getTheme(themeName);
-                UIThemeImplementation impl = null;
-
-                if (themeConfiguration != null) {
-                    String themeSelection = themeConfiguration.getUserThemeSelection(themeName);
-                    if (themeSelection != null) {
-                        impl = theme.getImpl(themeSelection);
-                    }
-                }
-                if (impl == null) {
-                    impl = theme.getDefaultImpl();
-                }
-                if (impl != null) {
-                    List<UIThemeContribution> contributions = impl.getContributions();
-
-                    if (!contributions.isEmpty()) {
-                        for (UIThemeContribution themeContribution : contributions) {
-                            Resource lessResource = themeContribution.createUserLessResource(userHome, impl);
-                            addContributionHeader(themeStylesBuilder, themeContribution);
-                            if (lessResource != null) {
-                                try {
-                                    themeStylesBuilder.append(lessProcessor.process(lessResource));
-                                } catch (Exception e) {
-                                    LOGGER.log(Level.WARNING, String.format("Error processing LESS resource contribution '%s' from theme implementation '%s'.",
-                                            lessResource.getName(), themeContribution.getQName()), e);
-                                }
-                            } else {
-                                themeStylesBuilder.append("     /* No resource */\n\n");
-                                LOGGER.log(Level.WARNING, "Theme implementation ''{0}'' returned a null LESS resource.", themeContribution.getQName().toString());
+        for (Map.Entry<String, UIThemeImplementation> themeImpl : themesConfiguration.themeImpls.entrySet()) {
+            final UIThemeImplementation impl = themeImpl.getValue();
+
+            if (impl != null) {
+                if (!impl.getContributions().isEmpty()) {
+                    for (final UIThemeContribution themeContribution : impl.getContributions()) {
+                        compiledContributions.add(new FutureTask<CompiledContribution>(new Callable<CompiledContribution>() {
+                            @Override
+                            public CompiledContribution call() throws Exception {
+                                return compileThemeContribution(impl, themeContribution, themesConfiguration, envDigest);
                             }
-                        }
-                    } else {
-                        LOGGER.log(Level.WARNING, "Theme implementation ''{0}'' has zero theme contributions. At least one is expected.", impl.getQName().toString());
+                        }));
                     }
                 } else {
-                    LOGGER.log(Level.WARNING, "Unknown/Unimplemented theme named ''{0}''.", themeName);
+                    LOGGER.log(Level.WARNING, "Theme implementation ''{0}'' has zero theme contributions. At least one is expected.", impl.getQName().toString());
                 }
+            } else {
+                LOGGER.log(Level.WARNING, "Unknown/Unimplemented theme named ''{0}''.", themeImpl.getKey());
             }
         }
 
-        // Store the generated theme CSS in the user dir.
-        FileUtils.write(cssFile, themeStylesBuilder.toString(), "UTF-8");
+        // Run the last contribution on this thread, rather than have it sit idle.
+        for (int i = 0; i < compiledContributions.size() - 1; i++) {
+            getCompileExecutor().execute(compiledContributions.get(i));
+        }
+        if (!compiledContributions.isEmpty()) {
+            compiledContributions.get(compiledContributions.size() - 1).run();
+        }
 
-        return cssFile;
+        try {
+            for (FutureTask<CompiledContribution> compiledContribution : compiledContributions) {
+                CompiledContribution contribution = getCompiledThemeContribution(compiledContribution);
+                themeStylesBuilder.append(contribution.css);
+                expiresAt = Math.min(expiresAt, contribution.expiresAt);
+            }
+        } finally {
+            for (FutureTask<CompiledContribution> compiledContribution : compiledContributions) {
+                compiledContribution.cancel(true);
+            }
+        }
+
+        byte[] cssBytes = themeStylesBuilder.toString().getBytes(UTF8);
+        if (expiresAt != ThemesCSS.NEVER) {
+            // One or more contributions are not available. Don't let the CSS be persisted or fingerprinted.
+            return ThemesCSS.createProvisional(cssBytes, expiresAt);
+        }
+        return ThemesCSS.create(cssBytes);
+    }
+
+    /**
+     * Compile a theme contribution.
+     * <p/>
+     * If the contribution is not available (could not be compiled), the compiled contribution expires: when the
+     * failure expires for a compile error, or immediately for a transient failure (e.g. a compile timeout under load).
+     */
+    private CompiledContribution compileThemeContribution(UIThemeImplementation impl, UIThemeContribution themeContribution, ThemesConfiguration themesConfiguration, String envDigest) throws IOException {
+        Map<String, String> config = themesConfiguration.contributionConfigs.get(themeContribution);
+        Map<String, String> compileConfig = themeContribution.getCompileConfig(impl, config);
+        String fragmentKey = getFragmentKey(themeContribution, compileConfig, envDigest);
+        String fragment = fragmentCache.get(fragmentKey);
+        StringBuilder themeStylesBuilder = new StringBuilder();
+
+        addContributionHeader(themeStylesBuilder, themeContribution);
+        if (themeContribution.isCSSCustomProperties()) {
+            // The compiled contribution is the same for all users. Apply the user's config through CSS custom properties.
+            themeStylesBuilder.append(themeContribution.createCSSCustomPropertiesBlock(impl, config));
+        }
+        if (fragment == null) {
+            // Use the build-time precompiled CSS if this is the default configuration.
+            fragment = themeContribution.getPrecompiledCSS(impl, compileConfig, themesConfiguration.jenkinsEnv.getProperty("rootURL"));
+            if (fragment != null) {
+                fragmentCache.put(fragmentKey, fragment);
+            }
+        }
+        if (fragment != null) {
+            return new CompiledContribution(themeStylesBuilder.append(fragment).toString(), ThemesCSS.NEVER);
+        }
+
+        String configDigest = DigestUtil.sha1(JSONReadWrite.toString(new TreeMap<String, String>(compileConfig)));
+        String failureKey = getFailureKey(themeContribution, configDigest);
+        UIThemeContributionFailure failure = contributionFailures.get(failureKey);
+        if (failure != null) {
+            if (!failure.isExpired()) {
+                // Known to fail. Don't recompile it (for every user).
+                addContributionFailure(themeStylesBuilder, failure.getMessage());
+                return new CompiledContribution(themeStylesBuilder.toString(), failure.getExpiresAt());
+            }
+            contributionFailures.remove(failureKey);
+        }
+
+        LESSProcessor lessProcessor = getLESSProcessor();
+        if (lessProcessor == null) {
+            addLESSProcessingNotAvailable(themeStylesBuilder);
+            return new CompiledContribution(themeStylesBuilder.toString(), System.currentTimeMillis() + FAILED_CONTRIBUTION_TTL);
+        }
+
+        Resource lessResource = themeContribution.createLessResource(themesConfiguration.userHome, compileConfig);
+        long expiresAt = ThemesCSS.NEVER;
+        if (lessResource != null) {
+            try {
+                fragment = lessProcessor.process(lessResource);
+                fragmentCache.put(fragmentKey, fragment);
+                themeStylesBuilder.append(fragment);
+            } catch (LESSCompileRetryableException e) {
+                // e.g. timed out or no compiler available under load. Not remembered as a failure, so the
+                // contribution is compiled again the next time the theme CSS is generated.
+                LOGGER.log(Level.WARNING, String.format("Unable to process LESS resource contribution '%s' from theme implementation '%s' at this time.",
+                        lessResource.getName(), themeContribution.getQName()), e);
+                addContributionFailure(themeStylesBuilder, getFailureMessage(e, lessResource, themeContribution));
+                expiresAt = System.currentTimeMillis();
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, String.format("Error processing LESS resource contribution '%s' from theme implementation '%s'. " +
+                        "The contribution will not be compiled again for %dms.",
+                        lessResource.getName(), themeContribution.getQName(), FAILED_CONTRIBUTION_TTL), e);
+                String message = getFailureMessage(e, lessResource, themeContribution);
+                UIThemeContributionFailure newFailure = new UIThemeContributionFailure(themeContribution, configDigest, message, FAILED_CONTRIBUTION_TTL);
+                contributionFailures.put(failureKey, newFailure);
+                addContributionFailure(themeStylesBuilder, message);
+                expiresAt = newFailure.getExpiresAt();
+            }
+        } else {
+            themeStylesBuilder.append("     /* No resource */\n\n");
+            LOGGER.log(Level.WARNING, "Theme implementation ''{0}'' returned a null LESS resource.", themeContribution.getQName().toString());
+        }
+
+        return new CompiledContribution(themeStylesBuilder.toString(), expiresAt);
+    }
+
+    /**
+     * Get the fragment cache key for a compiled theme contribution. The compiled contribution depends only on
+     * the contribution template, the theme implementation configuration applied to it and the Jenkins
+     * environment variables.
+     */
+    private static String getFragmentKey(UIThemeContribution themeContribution, Map<String, String> config, String envDigest) throws IOException {
+        StringBuilder keyBuilder = new StringBuilder();
+
+        keyBuilder.append("contribution: ").append(themeContribution.getQName()).append('\n');
+        keyBuilder.append("contributor: ").append(themeContribution.getContributor().getName()).append('\n');
+        keyBuilder.append("template: ").append(themeContribution.getTemplateDigest()).append('\n');
+        keyBuilder.append("config: ").append(JSONReadWrite.toString(new TreeMap<String, String>(config))).append('\n');
+        keyBuilder.append("env: ").append(envDigest).append('\n');
+
+        return DigestUtil.sha1(keyBuilder.toString());
+    }
+
+    /**
+     * Get the LESS processor, creating it if this is the first use.
+     * <p/>
+     * Creating the processor (and its first Rhino based compiler) is expensive, so it is deferred until theme CSS
+     * is actually needed. Concurrent callers wait on the one creation.
+     *
+     * @return The LESS processor, or {@code null} if LESS processing is not available.
+     * @throws IOException Interrupted while waiting for the LESS processor to be created.
+     */
+    protected LESSProcessor getLESSProcessor() throws IOException {
+        // A no-op if already run (or running on another thread).
+        lessProcessor.run();
+        try {
+            return lessProcessor.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the LESS processor to be created.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Error creating the LESS processor.", cause);
+        }
+    }
+
+    /**
+     * Get the failure cache key for a theme contribution i.e. the contribution, its template and the configuration
+     * applied to it.
+     */
+    private static String getFailureKey(UIThemeContribution themeContribution, String configDigest) {
+        StringBuilder keyBuilder = new StringBuilder();
+
+        keyBuilder.append("contribution: ").append(themeContribution.getQName()).append('\n');
+        keyBuilder.append("contributor: ").append(themeContribution.getContributor().getName()).append('\n');
+        keyBuilder.append("template: ").append(themeContribution.getTemplateDigest()).append('\n');
+        keyBuilder.append("config: ").append(configDigest).append('\n');
+
+        return DigestUtil.sha1(keyBuilder.toString());
+    }
+
+    /**
+     * Get the failure message for a failed contribution compilation, as reported in the generated CSS and through
+     * {@link #getContributionFailures()}. The full message (with file system paths) is only logged.
+     * <p/>
+     * Strips the absolute path of the LESS resource (it names the user), and the Jenkins home directory.
+     */
+    private static String getFailureMessage(Exception e, Resource lessResource, UIThemeContribution themeContribution) {
+        String message = String.valueOf(e.getMessage());
+
+        message = message.replace(lessResource.getName(), themeContribution.getQName().toString());
+        if (JenkinsUtil.JENKINS_USER_HOME != null) {
+            File jenkinsHome = JenkinsUtil.JENKINS_USER_HOME.getAbsoluteFile().getParentFile();
+            if (jenkinsHome != null) {
+                String jenkinsHomeURI = jenkinsHome.toURI().toString();
+                message = message.replace(jenkinsHomeURI.substring(0, jenkinsHomeURI.length() - 1), "$JENKINS_HOME");
+                message = message.replace(jenkinsHome.getPath(), "$JENKINS_HOME");
+            }
+        }
+
+        return message;
+    }
+
+    private CompiledContribution getCompiledThemeContribution(Future<CompiledContribution> compiledContribution) throws IOException {
+        try {
+            return compiledContribution.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for theme contributions to be compiled.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Error compiling theme contribution.", cause);
+        }
+    }
+
+    private Object getUserLock(File userHome) {
+        return userLocks[(userHome.hashCode() & 0x7fffffff) % userLocks.length];
     }
 
     private File normalizeUserHome(File userHome) {
@@ -272,6 +1173,14 @@ public final class UIThemesProcessor implements RootAction {
         return new File(getUserThemesDir(userHome), "themes.css");
     }
 
+    public static File getUserThemesCSSRefFile(File userHome) {
+        return new File(getUserThemesDir(userHome), "themes.css.ref");
+    }
+
+    public static File getThemesCSSStoreDir() {
+        return new File(getUserThemesDir(JenkinsUtil.JENKINS_USER_HOME), "css");
+    }
+
     public static File getUserThemeImplConfigFile(String themeName, String themeImplName, File userHome) {
         return new File(getUserThemeImplDir(themeName, themeImplName, userHome), "config.json");
     }
@@ -295,12 +1204,6 @@ public final class UIThemesProcessor implements RootAction {
         }
     }
 
-    private void addGenerationTime(StringBuilder stylesBuilder) {
-        stylesBuilder.append("/*\n");
-        stylesBuilder.append(String.format("      Generated %s\n", (new Date()).toString()));
-        stylesBuilder.append("*/\n");
-    }
-
     private void addLESSProcessingNotAvailable(StringBuilder stylesBuilder) {
         stylesBuilder.append("/*\n");
         stylesBuilder.append("      Unable to generate CSS styles. Possible reasons:\n" +
@@ -309,12 +1212,56 @@ public final class UIThemesProcessor implements RootAction {
         stylesBuilder.append("*/\n");
     }
 
+    private void addContributionFailure(StringBuilder stylesBuilder, String reason) {
+        stylesBuilder.append("/*\n");
+        stylesBuilder.append("      Contribution not available. Error compiling LESS resource:\n");
+        stylesBuilder.append(String.format("      %s\n", String.valueOf(reason).replace("*/", "* /")));
+        stylesBuilder.append("*/\n");
+    }
+
     private void addContributionHeader(StringBuilder stylesBuilder, UIThemeContribution themeContribution) {
         stylesBuilder.append("/*\n");
         stylesBuilder.append(String.format("      Theme Contribution '%s'\n", themeContribution.getQName()));
         stylesBuilder.append("*/\n");
     }
 
+    /**
+     * A compiled theme contribution, along with when it expires (i.e. needs to be compiled again) if
+     * it's not available.
+     */
+    private static final class CompiledContribution {
+        private final String css;
+        private final long expiresAt;
+
+        private CompiledContribution(String css, long expiresAt) {
+            this.css = css;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * A user's resolved theme configuration. The theme CSS is generated from this, rather than from the user's
+     * configuration on disk, so the generated CSS always matches the key it is stored under.
+     */
+    private static final class ThemesConfiguration {
+        private final File userHome;
+        private final Properties jenkinsEnv;
+        private final String generationDigest;
+        private final Map<String, UIThemeImplementation> themeImpls = new LinkedHashMap<String, UIThemeImplementation>();
+        private final Map<UIThemeContribution, Map<String, String>> contributionConfigs = new IdentityHashMap<UIThemeContribution, Map<String, String>>();
+        private String key;
+
+        private ThemesConfiguration(File userHome, Properties jenkinsEnv, String generationDigest) {
+            this.userHome = userHome;
+            this.jenkinsEnv = jenkinsEnv;
+            this.generationDigest = generationDigest;
+        }
+
+        private String getKey() {
+            return key;
+        }
+    }
+
     @Override
     public String getIconFileName() {
         return null;
@@ -331,8 +1278,36 @@ public final class UIThemesProcessor implements RootAction {
     }
 
     public final HttpResponse doCss(StaplerRequest req) throws IOException {
-        User user = User.current();
-        File cssFile = getUserThemesCSS(user);
-        return new CSSStaplerResponse(cssFile);
+        ThemesCSS css = getThemesCSS(User.current());
+        CSSStaplerResponse response = new CSSStaplerResponse(css);
+
+        // A request for a fingerprinted URL (see UIThemesPageDecorator) that matches the current CSS
+        // can be cached forever. If it doesn't match (e.g. a page rendered before a theme change), we
+        // just serve the current CSS without the long lived cache headers.
+        String fingerprint = getRequestedFingerprint(req);
+        if (fingerprint != null && fingerprint.equals(css.getETag())) {
+            response.setImmutable(true);
+        }
+
+        return response;
+    }
+
+    private static String getRequestedFingerprint(StaplerRequest req) {
+        String restOfPath = req.getRestOfPath();
+
+        if (restOfPath == null) {
+            return null;
+        }
+        if (restOfPath.startsWith("/")) {
+            restOfPath = restOfPath.substring(1);
+        }
+        if (restOfPath.endsWith(".css")) {
+            restOfPath = restOfPath.substring(0, restOfPath.length() - ".css".length());
+        }
+        if (restOfPath.length() == 0) {
+            return null;
+        }
+
+        return restOfPath;
     }
 }
@@ -0,0 +1,138 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins UI Themes plugin contributors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.uithemes.css;
+
+import org.jenkinsci.plugins.uithemes.util.DigestUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Generated theme CSS, as served to the browser.
+ * <p/>
+ * Holds the CSS bytes, along with the pre-compressed (gzip) bytes and the ETag (content hash).
+ * <p/>
+ * CSS generated while one or more theme contributions could not be compiled is
+ * {@link #isProvisional() provisional}. Provisional CSS is only ever held in memory (never persisted
+ * or fingerprinted), and is regenerated once it {@link #isExpired() expires}.
+ */
+public class ThemesCSS {
+
+    /**
+     * {@link #getExpiresAt() Expiry} of CSS that does not expire.
+     */
+    public static final long NEVER = Long.MAX_VALUE;
+
+    private final byte[] bytes;
+    private final byte[] gzipBytes;
+    private final String etag;
+    private final long lastModified;
+    private final long expiresAt;
+
+    public ThemesCSS(byte[] bytes, byte[] gzipBytes, String etag, long lastModified) {
+        this(bytes, gzipBytes, etag, lastModified, NEVER);
+    }
+
+    private ThemesCSS(byte[] bytes, byte[] gzipBytes, String etag, long lastModified, long expiresAt) {
+        this.bytes = bytes;
+        this.gzipBytes = gzipBytes;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.expiresAt = expiresAt;
+    }
+
+    public static ThemesCSS create(byte[] bytes) throws IOException {
+        return new ThemesCSS(bytes, gzip(bytes), DigestUtil.sha1(bytes), System.currentTimeMillis());
+    }
+
+    /**
+     * Create provisional CSS i.e. CSS that is incomplete and must be regenerated once it expires.
+     * @param bytes The CSS bytes.
+     * @param expiresAt The time (in milliseconds) at which the CSS expires.
+     * @return The provisional CSS.
+     * @throws IOException Error compressing the CSS.
+     */
+    public static ThemesCSS createProvisional(byte[] bytes, long expiresAt) throws IOException {
+        return new ThemesCSS(bytes, gzip(bytes), DigestUtil.sha1(bytes), System.currentTimeMillis(), expiresAt);
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public byte[] getGzipBytes() {
+        return gzipBytes;
+    }
+
+    public String getETag() {
+        return etag;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * Is this CSS provisional i.e. was one or more theme contribution not available when it was generated.
+     * @return {@code true} if the CSS is provisional, otherwise {@code false}.
+     */
+    public boolean isProvisional() {
+        return (expiresAt != NEVER);
+    }
+
+    /**
+     * Has this (provisional) CSS expired i.e. does it need to be regenerated.
+     * @return {@code true} if the CSS has expired, otherwise {@code false}.
+     */
+    public boolean isExpired() {
+        return (isProvisional() && System.currentTimeMillis() >= expiresAt);
+    }
+
+    /**
+     * Get the approximate in-memory size of this CSS.
+     * @return The size in bytes.
+     */
+    public long size() {
+        return bytes.length + (gzipBytes != null ? gzipBytes.length : 0) + etag.length() * 2;
+    }
+
+    public static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream gzipBytes = new ByteArrayOutputStream(bytes.length / 4);
+        GZIPOutputStream gzipStream = new GZIPOutputStream(gzipBytes) {{
+            def.setLevel(Deflater.BEST_COMPRESSION);
+        }};
+        try {
+            gzipStream.write(bytes);
+        } finally {
+            gzipStream.close();
+        }
+        return gzipBytes.toByteArray();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins UI Themes plugin contributors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.uithemes.css;
+
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.uithemes.util.DigestUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.regex.Pattern;
+
+/**
+ * Content addressed store of generated theme CSS.
+ * <p/>
+ * Generated theme CSS is stored once per distinct theme configuration key (a hash of the theme selections,
+ * theme implementation configurations etc), no matter how many users share that configuration. The
+ * user directories only hold a reference to the key of the CSS that applies to that user.
+ */
+public class ThemesCSSStore {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Pattern KEY_PATTERN = Pattern.compile("[0-9a-f]{40}");
+
+    private final File storeDir;
+
+    public ThemesCSSStore(File storeDir) {
+        this.storeDir = storeDir;
+    }
+
+    public File getStoreDir() {
+        return storeDir;
+    }
+
+    public static boolean isValidKey(String key) {
+        return (key != null && KEY_PATTERN.matcher(key).matches());
+    }
+
+    public File getCSSFile(String key) {
+        return new File(storeDir, assertValidKey(key) + ".css");
+    }
+
+    public File getGzipFile(String key) {
+        return new File(storeDir, assertValidKey(key) + ".css.gz");
+    }
+
+    public File getETagFile(String key) {
+        return new File(storeDir, assertValidKey(key) + ".css.etag");
+    }
+
+    public boolean contains(String key) {
+        return getCSSFile(key).exists();
+    }
+
+    /**
+     * Load the theme CSS stored under the specified key.
+     * @param key The theme configuration key.
+     * @return The stored CSS, or {@code null} if no CSS is stored under the specified key.
+     * @throws IOException Error reading the stored CSS.
+     */
+    public ThemesCSS load(String key) throws IOException {
+        File cssFile = getCSSFile(key);
+
+        if (!cssFile.exists()) {
+            return null;
+        }
+
+        byte[] cssBytes = FileUtils.readFileToByteArray(cssFile);
+        File gzipFile = getGzipFile(key);
+        File etagFile = getETagFile(key);
+        byte[] gzipBytes;
+        String etag;
+
+        if (gzipFile.exists()) {
+            gzipBytes = FileUtils.readFileToByteArray(gzipFile);
+        } else {
+            gzipBytes = ThemesCSS.gzip(cssBytes);
+        }
+        if (etagFile.exists()) {
+            etag = FileUtils.readFileToString(etagFile, UTF8).trim();
+        } else {
+            etag = DigestUtil.sha1(cssBytes);
+        }
+
+        return new ThemesCSS(cssBytes, gzipBytes, etag, cssFile.lastModified());
+    }
+
+    /**
+     * Store theme CSS under the specified key.
+     * <p/>
+     * The CSS file itself is written last (via a temporary file), so a CSS file is only ever
+     * visible in the store once it and its associated files are completely written.
+     *
+     * @param key The theme configuration key.
+     * @param css The CSS to store.
+     * @throws IOException Error writing the CSS.
+     */
+    public void store(String key, ThemesCSS css) throws IOException {
+        File cssFile = getCSSFile(key);
+        File tmpFile = new File(storeDir, String.format("%s.css.%d.tmp", key, Thread.currentThread().getId()));
+
+        FileUtils.writeByteArrayToFile(getGzipFile(key), css.getGzipBytes());
+        FileUtils.write(getETagFile(key), css.getETag(), UTF8);
+        FileUtils.writeByteArrayToFile(tmpFile, css.getBytes());
+        if (!tmpFile.renameTo(cssFile)) {
+            // Rename can fail on some platforms if the target exists.
+            FileUtils.deleteQuietly(cssFile);
+            if (!tmpFile.renameTo(cssFile)) {
+                FileUtils.deleteQuietly(tmpFile);
+                throw new IOException(String.format("Failed to store theme CSS file '%s'.", cssFile.getAbsolutePath()));
+            }
+        }
+    }
+
+    /**
+     * Remove all CSS from the store.
+     */
+    public void clear() {
+        File[] files = storeDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                FileUtils.deleteQuietly(file);
+            }
+        }
+    }
+
+    private static String assertValidKey(String key) {
+        if (!isValidKey(key)) {
+            throw new IllegalArgumentException(String.format("Invalid theme CSS key '%s'.", key));
+        }
+        return key;
+    }
+}
@@ -23,29 +23,144 @@
  */
 package org.jenkinsci.plugins.uithemes.jelly;
 
-import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.uithemes.css.ThemesCSS;
 import org.kohsuke.stapler.HttpResponse;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
 import javax.servlet.ServletException;
-import java.io.File;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 
 /**
+ * Theme CSS response.
+ * <p/>
+ * Supports conditional GET i.e. responds with a {@code 304 Not Modified} if the {@code If-None-Match}
+ * (or {@code If-Modified-Since}) request header indicates that the client already has the current CSS.
+ * <p/>
+ * If the {@link ThemesCSS} has pre-compressed (gzip) bytes, they are served to clients that
+ * accept the gzip content encoding.
+ * <p/>
+ * If the CSS is being served from a fingerprinted (content hashed) URL, the response can be marked as
+ * {@link #setImmutable(boolean) immutable}, allowing it to be cached forever. {@link ThemesCSS#isProvisional() Provisional}
+ * CSS is never served as immutable.
+ *
  * @author <a href="mailto:tom.fennelly@gmail.com">tom.fennelly@gmail.com</a>
  */
 public class CSSStaplerResponse implements HttpResponse {
 
-    private final File cssFile;
+    private final ThemesCSS css;
+    private boolean immutable = false;
+
+    public CSSStaplerResponse(ThemesCSS css) {
+        this.css = css;
+    }
 
-    public CSSStaplerResponse(File cssFile) {
-        this.cssFile = cssFile;
+    /**
+     * Mark the response as immutable.
+     * <p/>
+     * Only to be used when the CSS is served from a URL that changes whenever the CSS content changes.
+     *
+     * @param immutable {@code true} if the response is immutable, otherwise {@code false}.
+     * @return {@code this} response instance.
+     */
+    public CSSStaplerResponse setImmutable(boolean immutable) {
+        this.immutable = immutable;
+        return this;
     }
 
     public void generateResponse(StaplerRequest staplerRequest, StaplerResponse staplerResponse, Object node) throws IOException, ServletException {
-        byte[] cssBytes = FileUtils.readFileToByteArray(cssFile);
+        // HTTP dates only have second precision.
+        long lastModified = (css.getLastModified() / 1000) * 1000;
+        boolean gzip = (css.getGzipBytes() != null && acceptsGzip(staplerRequest));
+        // Each encoding is a different representation, so needs a different (strong) ETag.
+        String etag = String.format(gzip ? "\"%s-gzip\"" : "\"%s\"", css.getETag());
+
+        staplerResponse.setHeader("ETag", etag);
+        staplerResponse.setDateHeader("Last-Modified", lastModified);
+        staplerResponse.setHeader("Vary", "Accept-Encoding");
+        if (immutable && !css.isProvisional()) {
+            // Content hashed URL i.e. the content at this URL will never change.
+            staplerResponse.setHeader("Cache-Control", "public, max-age=31536000, immutable");
+        } else if (css.isExpired()) {
+            // Generated while a contribution was temporarily unavailable (e.g. a compile timeout under load), and
+            // already due to be regenerated. Don't let the client keep it at all.
+            staplerResponse.setHeader("Cache-Control", "private, no-store");
+        } else {
+            // The CSS is user specific and changes whenever the user changes their theme config, so
+            // make sure it is never stored in a shared cache and is always revalidated.
+            staplerResponse.setHeader("Cache-Control", "private, no-cache");
+        }
+
+        if (isNotModified(staplerRequest, etag, lastModified)) {
+            staplerResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        byte[] cssBytes;
+        if (gzip) {
+            cssBytes = css.getGzipBytes();
+            staplerResponse.setHeader("Content-Encoding", "gzip");
+        } else {
+            cssBytes = css.getBytes();
+        }
         staplerResponse.setContentType("text/css; charset=UTF-8");
+        staplerResponse.setContentLength(cssBytes.length);
         staplerResponse.getOutputStream().write(cssBytes);
     }
+    protected static boolean acceptsGzip(StaplerRequest staplerRequest) {
+        String acceptEncoding = staplerRequest.getHeader("Accept-Encoding");
+
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        for (String coding : acceptEncoding.split(",")) {
+            String[] codingTokens = coding.split(";");
+            String codingName = codingTokens[0].trim();
+
+            if (codingName.equalsIgnoreCase("gzip") || codingName.equals("*")) {
+                // Make sure it's not explicitly refused i.e. "gzip;q=0"
+                for (int i = 1; i < codingTokens.length; i++) {
+                    String param = codingTokens[i].trim();
+                    if (param.startsWith("q=")) {
+                        try {
+                            return Float.parseFloat(param.substring(2).trim()) > 0;
+                        } catch (NumberFormatException e) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    protected static boolean isNotModified(StaplerRequest staplerRequest, String etag, long lastModified) {
+        String ifNoneMatch = staplerRequest.getHeader("If-None-Match");
+
+        // If-None-Match takes precedence over If-Modified-Since (RFC 7232, section 6).
+        if (ifNoneMatch != null) {
+            for (String clientETag : ifNoneMatch.split(",")) {
+                clientETag = clientETag.trim();
+                if (clientETag.startsWith("W/")) {
+                    clientETag = clientETag.substring(2);
+                }
+                if (clientETag.equals("*") || clientETag.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        try {
+            long ifModifiedSince = staplerRequest.getDateHeader("If-Modified-Since");
+            return (ifModifiedSince != -1 && ifModifiedSince >= lastModified);
+        } catch (IllegalArgumentException e) {
+            // Badly formatted date header. Ignore it.
+            return false;
+        }
+    }
 }
@@ -29,6 +29,11 @@ import hudson.model.User;
 import hudson.security.Permission;
 import jenkins.model.Jenkins;
 import org.acegisecurity.Authentication;
+import org.jenkinsci.plugins.uithemes.UIThemesProcessor;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * @author <a href="mailto:tom.fennelly@gmail.com">tom.fennelly@gmail.com</a>
@@ -36,10 +41,33 @@ import org.acegisecurity.Authentication;
 @Extension
 public class UIThemesPageDecorator extends PageDecorator {
 
+    private static final Logger LOGGER = Logger.getLogger(UIThemesPageDecorator.class.getName());
+
     public boolean getThemesSupported() {
         // Need to make sure the user at least has READ permissions, otherwise the test harness
         // in Jenkins core starts throwing ACL errors. If READ permissions are not available,
         // then don't try supporting UI Themes. Should only effect the test harness !!
         return Jenkins.getInstance().getACL().hasPermission(Permission.READ);
     }
+
+    /**
+     * Get the theme CSS path (relative to the {@link UIThemesProcessor} URL) for the current user.
+     * <p/>
+     * The path is fingerprinted with the hash of the user's generated CSS, so the browser can cache it
+     * forever and a theme change simply results in a new path. If the user's CSS has not been generated yet,
+     * the unversioned path is used, rather than holding up the page while the CSS is generated.
+     *
+     * @return The theme CSS path.
+     */
+    public String getThemesCSSPath() {
+        try {
+            String fingerprint = UIThemesProcessor.getInstance().getAvailableUserThemesCSSFingerprint(User.current());
+            if (fingerprint != null) {
+                return String.format("css/%s.css", fingerprint);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error getting user theme CSS fingerprint. Falling back to the unversioned theme CSS URL.", e);
+        }
+        return "css";
+    }
 }
@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins UI Themes plugin contributors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.uithemes.less;
+
+import org.jenkinsci.plugins.uithemes.model.UIThemeContribution;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+
+/**
+ * In-memory LESS resource generated from a contributor LESS template.
+ * <p/>
+ * Imports are resolved relative to the template on the contributor classpath, exactly as they would be
+ * for the template itself.
+ */
+public class GeneratedLESSResource extends URLResource {
+
+    private final String name;
+    private final byte[] content;
+
+    /**
+     * Create a generated LESS resource.
+     *
+     * @param name The resource name.
+     * @param content The generated LESS.
+     * @param templatePath The classpath path of the template the LESS was generated from.
+     * @param templateURL The URL of the template the LESS was generated from.
+     * @param viaContribution The contribution that owns the template.
+     */
+    public GeneratedLESSResource(String name, String content, String templatePath, URL templateURL, UIThemeContribution viaContribution) {
+        this(name, content.getBytes(Charset.forName("UTF-8")), templatePath, templateURL, viaContribution);
+    }
+
+    /**
+     * Create a generated LESS resource.
+     *
+     * @param name The resource name.
+     * @param content The generated LESS (UTF-8). Not copied.
+     * @param templatePath The classpath path of the template the LESS was generated from.
+     * @param templateURL The URL of the template the LESS was generated from.
+     * @param viaContribution The contribution that owns the template.
+     */
+    public GeneratedLESSResource(String name, byte[] content, String templatePath, URL templateURL, UIThemeContribution viaContribution) {
+        super(templateURL, viaContribution);
+        this.name = name;
+        this.content = content;
+        setClasspathPath(templatePath);
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(content);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,1495 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins UI Themes plugin contributors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.uithemes.less;
+
+import org.lesscss.LessException;
+import org.lesscss.LessSource;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Pure Java compiler for the subset of LESS used by theme contribution templates.
+ * <p/>
+ * Supports variables (lazily evaluated and lexically scoped), nested rulesets (incl. {@code &}), mixins (with
+ * parameters and default values, incl. plain class and id rulesets), {@code @{var}} interpolation, escaped strings,
+ * operations on numbers and colors and the commonly used color and math functions. {@code @import}s are inlined by
+ * {@link LessSource} before compilation, so the compiler works on the normalized LESS content.
+ * <p/>
+ * Anything outside of that subset (guards, namespaces, {@code :extend}, detached rulesets, nested media queries,
+ * unknown LESS functions etc) results in a {@link LessException}, in which case the caller is expected to fall back
+ * to the Rhino based {@link org.lesscss.LessCompiler}. The compiler holds no state and is thread-safe.
+ */
+public class JavaLESSCompiler {
+
+    private static final int MAX_MIXIN_DEPTH = 64;
+
+    private static final Set<String> BLOCK_AT_RULES = new HashSet<String>(Arrays.asList(
+            "media", "supports", "font-face", "page", "document", "-moz-document", "viewport", "-ms-viewport",
+            "keyframes", "-webkit-keyframes", "-moz-keyframes", "-o-keyframes", "-ms-keyframes"
+    ));
+    private static final Set<String> INLINE_AT_RULES = new HashSet<String>(Arrays.asList(
+            "charset", "namespace"
+    ));
+
+    /**
+     * LESS built-in functions. Calls to any of these that are not implemented by {@link #callFunction(String, List)}
+     * are not supported (as opposed to being output as plain CSS functions).
+     */
+    private static final Set<String> LESS_FUNCTIONS = new HashSet<String>(Arrays.asList(
+            "escape", "e", "replace", "unit", "get-unit", "convert", "data-uri", "svg-gradient", "length", "extract",
+            "ceil", "floor", "percentage", "round", "sqrt", "abs", "sin", "asin", "cos", "acos", "tan", "atan", "pi",
+            "pow", "mod", "min", "max", "isnumber", "isstring", "iscolor", "iskeyword", "isurl", "ispixel", "isem",
+            "ispercentage", "isunit", "rgb", "rgba", "argb", "hsl", "hsla", "hsv", "hsva", "hue", "saturation",
+            "lightness", "hsvhue", "hsvsaturation", "hsvvalue", "red", "green", "blue", "alpha", "luma", "luminance",
+            "saturate", "desaturate", "lighten", "darken", "fadein", "fadeout", "fade", "spin", "mix", "greyscale",
+            "contrast", "multiply", "screen", "overlay", "softlight", "hardlight", "difference", "exclusion",
+            "average", "negation", "tint", "shade", "color", "calc", "expression"
+    ));
+
+    private static final Pattern MIXIN_DEFINITION = Pattern.compile("([.#][\\w-]+)\\s*\\((.*)\\)", Pattern.DOTALL);
+    private static final Pattern MIXIN_CALL = Pattern.compile("([.#][\\w-]+)\\s*(?:\\((.*)\\))?", Pattern.DOTALL);
+    private static final Pattern MIXIN_PARAMETER = Pattern.compile("@([\\w-]+)\\s*(?::(.*))?", Pattern.DOTALL);
+    private static final Pattern NAMED_ARGUMENT = Pattern.compile("@[\\w-]+\\s*:.*", Pattern.DOTALL);
+    private static final Pattern SIMPLE_SELECTOR = Pattern.compile("[.#][\\w-]+");
+    private static final Pattern GUARD = Pattern.compile("\\swhen\\s*\\(");
+    private static final Pattern INTERPOLATION = Pattern.compile("@\\{([\\w-]+)\\}");
+
+    /**
+     * Compile the supplied (normalized) LESS content.
+     * @param less The LESS content, with {@code @import}s already inlined (see {@link LessSource#getNormalizedContent()}).
+     * @return The compiled CSS.
+     * @throws LessException The content uses LESS features not supported by this compiler.
+     */
+    public String compile(String less) throws LessException {
+        try {
+            List<Node> nodes = new Parser(less).parseBlock(true);
+            Scope scope = new Scope(null, null);
+            List<Output> output = new ArrayList<Output>();
+
+            scope.collect(nodes);
+            evaluate(nodes, scope, new Frame(null, null, output), 0);
+
+            StringBuilder css = new StringBuilder();
+            write(output, "", css);
+            return css.toString();
+        } catch (UnsupportedException e) {
+            throw new LessException(e.getMessage(), e);
+        } catch (RuntimeException e) {
+            throw new LessException("Unexpected error compiling LESS: " + e.getMessage(), e);
+        }
+    }
+
+    private static void evaluate(List<Node> nodes, Scope scope, Frame frame, int depth) {
+        for (Node node : nodes) {
+            if (node instanceof Comment) {
+                String text = ((Comment) node).text;
+                if (frame.declarations != null) {
+                    frame.declarations.add(text);
+                } else {
+                    frame.output.add(new TextOutput(text));
+                }
+            } else if (node instanceof Declaration) {
+                Declaration declaration = (Declaration) node;
+                if (frame.declarations == null) {
+                    throw new UnsupportedException("Declaration '" + declaration.property + "' outside of a ruleset.");
+                }
+                String property = interpolate(declaration.property, scope);
+                String value = new Expression(declaration.value, scope).parse().toCSS();
+                frame.declarations.add(property + ": " + value + ";");
+            } else if (node instanceof Ruleset) {
+                Ruleset ruleset = (Ruleset) node;
+                List<String> selectors = evaluateSelectors(ruleset.selectors, scope, frame.selectors);
+                RulesetOutput rulesetOutput = new RulesetOutput(selectors);
+                Scope rulesetScope = new Scope(scope, null);
+
+                frame.output.add(rulesetOutput);
+                rulesetScope.collect(ruleset.body);
+                evaluate(ruleset.body, rulesetScope, new Frame(selectors, rulesetOutput.declarations, frame.output), depth);
+            } else if (node instanceof MixinCall) {
+                callMixin((MixinCall) node, scope, frame, depth);
+            } else if (node instanceof AtRule) {
+                AtRule atRule = (AtRule) node;
+                if (frame.selectors != null) {
+                    throw new UnsupportedException("Nested '@" + atRule.name + "' rules.");
+                }
+                String prelude = atRule.prelude.replaceAll("\\s+", " ").trim();
+                if (prelude.indexOf('@') != -1) {
+                    throw new UnsupportedException("Variables in '@" + atRule.name + "' rules.");
+                }
+                String header = "@" + atRule.name + (prelude.length() > 0 ? " " + prelude : "");
+                if (atRule.body == null) {
+                    frame.output.add(new TextOutput(header + ";"));
+                } else {
+                    AtRuleOutput atRuleOutput = new AtRuleOutput(header);
+                    Scope atRuleScope = new Scope(scope, null);
+
+                    frame.output.add(atRuleOutput);
+                    atRuleScope.collect(atRule.body);
+                    evaluate(atRule.body, atRuleScope, new Frame(null, atRuleOutput.declarations, atRuleOutput.children), depth);
+                }
+            }
+            // Variables and mixin definitions produce no output of their own.
+        }
+    }
+
+    private static void callMixin(MixinCall call, Scope scope, Frame frame, int depth) {
+        if (depth >= MAX_MIXIN_DEPTH) {
+            throw new UnsupportedException("Mixin '" + call.name + "' nested too deeply (recursive mixins).");
+        }
+
+        List<Mixin> candidates = scope.getMixins(call.name);
+        if (candidates == null) {
+            throw new UnsupportedException("Undefined mixin '" + call.name + "'.");
+        }
+
+        List<Value> arguments = new ArrayList<Value>();
+        if (call.arguments != null && call.arguments.trim().length() > 0) {
+            char separator = (indexOfTopLevel(call.arguments, ';') != -1 ? ';' : ',');
+            for (String argument : splitTopLevel(call.arguments, separator)) {
+                argument = argument.trim();
+                if (argument.length() == 0) {
+                    continue;
+                }
+                if (NAMED_ARGUMENT.matcher(argument).matches()) {
+                    throw new UnsupportedException("Named mixin arguments.");
+                }
+                arguments.add(new Expression(argument, scope).parse());
+            }
+        }
+
+        boolean matched = false;
+        for (Mixin mixin : candidates) {
+            if (!mixin.accepts(arguments.size())) {
+                continue;
+            }
+
+            Scope mixinScope = new Scope(mixin.scope, scope);
+            List<Value> values = new ArrayList<Value>();
+            for (int i = 0; i < mixin.parameters.size(); i++) {
+                Parameter parameter = mixin.parameters.get(i);
+                Value value;
+                if (i < arguments.size()) {
+                    value = arguments.get(i);
+                } else {
+                    value = new Expression(parameter.defaultValue, mixinScope).parse();
+                }
+                mixinScope.arguments.put(parameter.name, value);
+                values.add(value);
+            }
+            mixinScope.arguments.put("arguments", new ListValue(values, " "));
+            mixinScope.collect(mixin.body);
+            evaluate(mixin.body, mixinScope, frame, depth + 1);
+            matched = true;
+        }
+        if (!matched) {
+            throw new UnsupportedException("No matching definition for mixin '" + call.name + "'.");
+        }
+    }
+
+    private static List<String> evaluateSelectors(String selectorList, Scope scope, List<String> parents) {
+        List<String> selectors = new ArrayList<String>();
+
+        for (String selector : splitTopLevel(interpolate(selectorList, scope), ',')) {
+            selector = normalizeSelector(selector);
+            if (selector.length() == 0) {
+                throw new UnsupportedException("Empty selector in '" + selectorList + "'.");
+            }
+            if (parents == null) {
+                if (selector.indexOf('&') != -1) {
+                    throw new UnsupportedException("Parent selector '&' outside of a ruleset.");
+                }
+                selectors.add(selector);
+            } else {
+                for (String parent : parents) {
+                    if (selector.indexOf('&') != -1) {
+                        selectors.add(selector.replace("&", parent));
+                    } else {
+                        selectors.add(parent + " " + selector);
+                    }
+                }
+            }
+        }
+
+        return selectors;
+    }
+
+    private static String normalizeSelector(String selector) {
+        StringBuilder normalized = new StringBuilder();
+        int depth = 0;
+
+        selector = selector.replaceAll("\\s+", " ").trim();
+        for (int i = 0; i < selector.length(); i++) {
+            char c = selector.charAt(i);
+            if (c == '(' || c == '[') {
+                depth++;
+            } else if (c == ')' || c == ']') {
+                depth--;
+            } else if (depth == 0 && (c == '>' || c == '+' || c == '~')) {
+                // Combinators are output with a single space either side.
+                while (normalized.length() > 0 && normalized.charAt(normalized.length() - 1) == ' ') {
+                    normalized.setLength(normalized.length() - 1);
+                }
+                normalized.append(normalized.length() > 0 ? " " : "").append(c).append(' ');
+                while (i + 1 < selector.length() && selector.charAt(i + 1) == ' ') {
+                    i++;
+                }
+                continue;
+            }
+            normalized.append(c);
+        }
+
+        return normalized.toString().trim();
+    }
+
+    private static String interpolate(String text, Scope scope) {
+        if (text.indexOf("@{") == -1) {
+            return text;
+        }
+
+        Matcher matcher = INTERPOLATION.matcher(text);
+        StringBuffer interpolated = new StringBuffer();
+        while (matcher.find()) {
+            Value value = scope.getVariable(matcher.group(1));
+            if (value == null) {
+                throw new UnsupportedException("Undefined variable '@" + matcher.group(1) + "'.");
+            }
+            matcher.appendReplacement(interpolated, Matcher.quoteReplacement(value.toInterpolated()));
+        }
+        matcher.appendTail(interpolated);
+
+        return interpolated.toString();
+    }
+
+    private static void write(List<Output> output, String indent, StringBuilder css) {
+        for (Output node : output) {
+            if (node instanceof TextOutput) {
+                css.append(indent).append(((TextOutput) node).text).append('\n');
+            } else if (node instanceof RulesetOutput) {
+                RulesetOutput ruleset = (RulesetOutput) node;
+                if (ruleset.declarations.isEmpty()) {
+                    continue;
+                }
+                for (int i = 0; i < ruleset.selectors.size(); i++) {
+                    css.append(i > 0 ? ",\n" : "").append(indent).append(ruleset.selectors.get(i));
+                }
+                css.append(" {\n");
+                writeDeclarations(ruleset.declarations, indent + "  ", css);
+                css.append(indent).append("}\n");
+            } else if (node instanceof AtRuleOutput) {
+                AtRuleOutput atRule = (AtRuleOutput) node;
+                StringBuilder body = new StringBuilder();
+                writeDeclarations(atRule.declarations, indent + "  ", body);
+                write(atRule.children, indent + "  ", body);
+                if (body.length() > 0) {
+                    css.append(indent).append(atRule.header).append(" {\n").append(body).append(indent).append("}\n");
+                }
+            }
+        }
+    }
+
+    private static void writeDeclarations(List<String> declarations, String indent, StringBuilder css) {
+        for (String declaration : declarations) {
+            css.append(indent).append(declaration).append('\n');
+        }
+    }
+
+    private static Value callFunction(String name, List<Value> args) {
+        String function = name.toLowerCase();
+
+        if (function.equals("lighten") || function.equals("darken")) {
+            double[] hsl = toColor(arg(args, 0)).toHSL();
+            double amount = toNumber(arg(args, 1)).value / 100;
+            hsl[2] = clamp(hsl[2] + (function.equals("lighten") ? amount : -amount));
+            return Color.fromHSL(hsl);
+        } else if (function.equals("saturate") || function.equals("desaturate")) {
+            double[] hsl = toColor(arg(args, 0)).toHSL();
+            double amount = toNumber(arg(args, 1)).value / 100;
+            hsl[1] = clamp(hsl[1] + (function.equals("saturate") ? amount : -amount));
+            return Color.fromHSL(hsl);
+        } else if (function.equals("greyscale")) {
+            double[] hsl = toColor(arg(args, 0)).toHSL();
+            hsl[1] = 0;
+            return Color.fromHSL(hsl);
+        } else if (function.equals("fadein") || function.equals("fadeout") || function.equals("fade")) {
+            double[] hsl = toColor(arg(args, 0)).toHSL();
+            double amount = toNumber(arg(args, 1)).value / 100;
+            if (function.equals("fade")) {
+                hsl[3] = clamp(amount);
+            } else {
+                hsl[3] = clamp(hsl[3] + (function.equals("fadein") ? amount : -amount));
+            }
+            return Color.fromHSL(hsl);
+        } else if (function.equals("spin")) {
+            double[] hsl = toColor(arg(args, 0)).toHSL();
+            double hue = (hsl[0] + toNumber(arg(args, 1)).value) % 360;
+            hsl[0] = (hue < 0 ? 360 + hue : hue);
+            return Color.fromHSL(hsl);
+        } else if (function.equals("mix")) {
+            Color color1 = toColor(arg(args, 0));
+            Color color2 = toColor(arg(args, 1));
+            double p = (args.size() > 2 ? toNumber(args.get(2)).value : 50) / 100;
+            double w = p * 2 - 1;
+            double a = color1.alpha - color2.alpha;
+            double w1 = (((w * a == -1) ? w : (w + a) / (1 + w * a)) + 1) / 2;
+            double w2 = 1 - w1;
+            double[] rgb = new double[3];
+            for (int i = 0; i < rgb.length; i++) {
+                rgb[i] = color1.rgb[i] * w1 + color2.rgb[i] * w2;
+            }
+            return new Color(rgb, color1.alpha * p + color2.alpha * (1 - p));
+        } else if (function.equals("rgb") || function.equals("rgba")) {
+            double[] rgb = new double[3];
+            for (int i = 0; i < rgb.length; i++) {
+                Num channel = toNumber(arg(args, i));
+                rgb[i] = (channel.unit.equals("%") ? channel.value * 255 / 100 : channel.value);
+            }
+            double alpha = (function.equals("rgba") ? toFraction(arg(args, 3)) : 1);
+            return new Color(rgb, alpha);
+        } else if (function.equals("hsl") || function.equals("hsla")) {
+            double alpha = (function.equals("hsla") ? toFraction(arg(args, 3)) : 1);
+            return Color.fromHSL(new double[] {
+                    toNumber(arg(args, 0)).value, toFraction(arg(args, 1)), toFraction(arg(args, 2)), alpha
+            });
+        } else if (function.equals("red") || function.equals("green") || function.equals("blue")) {
+            Color color = toColor(arg(args, 0));
+            int channel = (function.equals("red") ? 0 : (function.equals("green") ? 1 : 2));
+            return new Num(color.rgb[channel], "");
+        } else if (function.equals("alpha") && args.size() == 1 && args.get(0) instanceof Color) {
+            return new Num(((Color) args.get(0)).alpha, "");
+        } else if (function.equals("color")) {
+            Value value = arg(args, 0);
+            if (value instanceof Quoted && ((Quoted) value).content.matches("#([0-9a-fA-F]{3}|[0-9a-fA-F]{6})")) {
+                return Color.parse(((Quoted) value).content.substring(1));
+            }
+            throw new UnsupportedException("color() argument '" + value.toCSS() + "'.");
+        } else if (function.equals("e")) {
+            return new Keyword(arg(args, 0).toInterpolated());
+        } else if (function.equals("unit")) {
+            Num number = toNumber(arg(args, 0));
+            return new Num(number.value, (args.size() > 1 ? args.get(1).toInterpolated() : ""));
+        } else if (function.equals("percentage")) {
+            return new Num(toNumber(arg(args, 0)).value * 100, "%");
+        } else if (function.equals("round")) {
+            Num number = toNumber(arg(args, 0));
+            int places = (args.size() > 1 ? (int) toNumber(args.get(1)).value : 0);
+            return new Num(BigDecimal.valueOf(number.value).setScale(places, RoundingMode.HALF_UP).doubleValue(), number.unit);
+        } else if (function.equals("ceil")) {
+            Num number = toNumber(arg(args, 0));
+            return new Num(Math.ceil(number.value), number.unit);
+        } else if (function.equals("floor")) {
+            Num number = toNumber(arg(args, 0));
+            return new Num(Math.floor(number.value), number.unit);
+        } else if (function.equals("abs")) {
+            Num number = toNumber(arg(args, 0));
+            return new Num(Math.abs(number.value), number.unit);
+        }
+
+        if (LESS_FUNCTIONS.contains(function) || function.endsWith("calc")) {
+            throw new UnsupportedException("LESS function '" + name + "()'.");
+        }
+
+        // Not a LESS function, so output as a plain CSS function e.g. rotate(), linear-gradient().
+        return new Call(name, args);
+    }
+
+    private static Value operate(char operator, Value left, Value right) {
+        if (left instanceof Num && right instanceof Num) {
+            return ((Num) left).operate(operator, (Num) right);
+        } else if (left instanceof Color || right instanceof Color) {
+            return toColor(left).operate(operator, toColor(right));
+        }
+        throw new UnsupportedException("Operation '" + operator + "' on '" + left.toCSS() + "' and '" + right.toCSS() + "'.");
+    }
+
+    private static Value arg(List<Value> args, int index) {
+        if (index >= args.size()) {
+            throw new UnsupportedException("Missing function argument.");
+        }
+        return args.get(index);
+    }
+
+    private static Num toNumber(Value value) {
+        if (value instanceof Num) {
+            return (Num) value;
+        }
+        throw new UnsupportedException("Expected a number but got '" + value.toCSS() + "'.");
+    }
+
+    private static double toFraction(Value value) {
+        Num number = toNumber(value);
+        return (number.unit.equals("%") ? number.value / 100 : number.value);
+    }
+
+    private static Color toColor(Value value) {
+        if (value instanceof Color) {
+            return (Color) value;
+        } else if (value instanceof Num) {
+            double number = ((Num) value).value;
+            return new Color(new double[] {number, number, number}, 1);
+        }
+        throw new UnsupportedException("Expected a color but got '" + value.toCSS() + "'.");
+    }
+
+    private static double clamp(double value) {
+        return Math.min(1, Math.max(0, value));
+    }
+
+    private static String formatNumber(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new UnsupportedException("Invalid number '" + value + "'.");
+        }
+        if (value != 0 && Math.abs(value) < 0.000001) {
+            throw new UnsupportedException("Number too small '" + value + "'.");
+        }
+
+        BigDecimal rounded = BigDecimal.valueOf(value).setScale(8, RoundingMode.HALF_UP);
+        if (rounded.compareTo(BigDecimal.ZERO) == 0) {
+            return "0";
+        }
+        return rounded.stripTrailingZeros().toPlainString();
+    }
+
+    private static int indexOfTopLevel(String text, char c) {
+        int depth = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char next = text.charAt(i);
+            if (next == '"' || next == '\'') {
+                i = skipString(text, i) - 1;
+            } else if (next == '(' || next == '[') {
+                depth++;
+            } else if (next == ')' || next == ']') {
+                depth--;
+            } else if (next == c && depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static List<String> splitTopLevel(String text, char separator) {
+        List<String> tokens = new ArrayList<String>();
+        int index = indexOfTopLevel(text, separator);
+        while (index != -1) {
+            tokens.add(text.substring(0, index));
+            text = text.substring(index + 1);
+            index = indexOfTopLevel(text, separator);
+        }
+        tokens.add(text);
+        return tokens;
+    }
+
+    /**
+     * Get the index immediately after the quoted string starting at the supplied index.
+     */
+    private static int skipString(String text, int start) {
+        char quote = text.charAt(start);
+        for (int i = start + 1; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == quote) {
+                return i + 1;
+            } else if (c == '\n') {
+                break;
+            }
+        }
+        throw new UnsupportedException("Unterminated string.");
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '-' || c == '_';
+    }
+
+    /**
+     * Parses LESS content into a tree of statements. Values are kept as raw text and parsed by {@link Expression}
+     * when evaluated.
+     */
+    private static class Parser {
+
+        private final String src;
+        private int pos;
+
+        private Parser(String src) {
+            this.src = src;
+        }
+
+        private List<Node> parseBlock(boolean topLevel) {
+            List<Node> nodes = new ArrayList<Node>();
+
+            while (true) {
+                skipWhitespace();
+                if (pos >= src.length()) {
+                    if (!topLevel) {
+                        throw new UnsupportedException("Missing closing '}'.");
+                    }
+                    return nodes;
+                }
+
+                char c = src.charAt(pos);
+                if (c == '}') {
+                    if (topLevel) {
+                        throw new UnsupportedException("Unexpected '}'.");
+                    }
+                    pos++;
+                    return nodes;
+                } else if (c == ';') {
+                    pos++;
+                } else if (src.startsWith("//", pos)) {
+                    skipLineComment();
+                } else if (src.startsWith("/*", pos)) {
+                    int end = src.indexOf("*/", pos + 2);
+                    if (end == -1) {
+                        throw new UnsupportedException("Unterminated comment.");
+                    }
+                    nodes.add(new Comment(src.substring(pos, end + 2)));
+                    pos = end + 2;
+                } else if (c == '@' && !src.startsWith("@{", pos)) {
+                    nodes.add(parseAtStatement());
+                } else {
+                    String head = readHead();
+                    if (head.length() == 0) {
+                        throw new UnsupportedException("Unexpected '" + src.charAt(pos) + "'.");
+                    }
+                    if (pos < src.length() && src.charAt(pos) == '{') {
+                        pos++;
+                        nodes.add(createRuleset(head, parseBlock(false)));
+                    } else {
+                        nodes.add(createDeclaration(head));
+                    }
+                }
+            }
+        }
+
+        private Node parseAtStatement() {
+            pos++;
+            int nameStart = pos;
+            while (pos < src.length() && isNameChar(src.charAt(pos))) {
+                pos++;
+            }
+            String name = src.substring(nameStart, pos);
+
+            if (BLOCK_AT_RULES.contains(name) || INLINE_AT_RULES.contains(name)) {
+                String prelude = readHead();
+                boolean hasBody = (pos < src.length() && src.charAt(pos) == '{');
+                if (hasBody != BLOCK_AT_RULES.contains(name)) {
+                    throw new UnsupportedException("Malformed '@" + name + "' rule.");
+                }
+                if (hasBody) {
+                    pos++;
+                    return new AtRule(name, prelude, parseBlock(false));
+                }
+                return new AtRule(name, prelude, null);
+            }
+
+            skipWhitespace();
+            if (name.length() > 0 && pos < src.length() && src.charAt(pos) == ':') {
+                pos++;
+                skipWhitespace();
+                String value = readHead();
+                if (value.length() == 0 || (pos < src.length() && src.charAt(pos) == '{')) {
+                    throw new UnsupportedException("Detached ruleset or empty value for variable '@" + name + "'.");
+                }
+                return new Variable(name, value);
+            }
+
+            throw new UnsupportedException("At-rule '@" + name + "'.");
+        }
+
+        private Node createRuleset(String head, List<Node> body) {
+            if (GUARD.matcher(head).find()) {
+                throw new UnsupportedException("Guards ('" + head + "').");
+            }
+            if (head.contains(":extend")) {
+                throw new UnsupportedException("Extend ('" + head + "').");
+            }
+
+            Matcher mixinDefinition = MIXIN_DEFINITION.matcher(head);
+            if (mixinDefinition.matches()) {
+                return new MixinDefinition(mixinDefinition.group(1), parseParameters(mixinDefinition.group(2)), body);
+            }
+            return new Ruleset(head, body);
+        }
+
+        private List<Parameter> parseParameters(String parameterList) {
+            List<Parameter> parameters = new ArrayList<Parameter>();
+
+            if (parameterList.trim().length() == 0) {
+                return parameters;
+            }
+
+            char separator = (indexOfTopLevel(parameterList, ';') != -1 ? ';' : ',');
+            for (String parameter : splitTopLevel(parameterList, separator)) {
+                parameter = parameter.trim();
+                if (parameter.length() == 0) {
+                    continue;
+                }
+                Matcher matcher = MIXIN_PARAMETER.matcher(parameter);
+                if (!matcher.matches() || parameter.contains("...")) {
+                    throw new UnsupportedException("Mixin parameter '" + parameter + "'.");
+                }
+                String defaultValue = matcher.group(2);
+                parameters.add(new Parameter(matcher.group(1), (defaultValue != null ? defaultValue.trim() : null)));
+            }
+
+            return parameters;
+        }
+
+        private Node createDeclaration(String head) {
+            if (head.startsWith(".") || head.startsWith("#")) {
+                Matcher mixinCall = MIXIN_CALL.matcher(head);
+                if (!mixinCall.matches()) {
+                    throw new UnsupportedException("Mixin call '" + head + "'.");
+                }
+                return new MixinCall(mixinCall.group(1), mixinCall.group(2));
+            }
+
+            int colon = indexOfTopLevel(head, ':');
+            if (colon <= 0) {
+                throw new UnsupportedException("Statement '" + head + "'.");
+            }
+
+            String property = head.substring(0, colon).trim();
+            String value = head.substring(colon + 1).trim();
+            if (property.endsWith("+") || property.endsWith("+_") || value.length() == 0) {
+                throw new UnsupportedException("Declaration '" + head + "'.");
+            }
+            return new Declaration(property, value);
+        }
+
+        /**
+         * Read up to the next top level ';', '{' or '}', dropping comments.
+         */
+        private String readHead() {
+            StringBuilder head = new StringBuilder();
+            int depth = 0;
+
+            while (pos < src.length()) {
+                char c = src.charAt(pos);
+                if (c == '"' || c == '\'') {
+                    int end = skipString(src, pos);
+                    head.append(src, pos, end);
+                    pos = end;
+                    continue;
+                } else if (src.startsWith("/*", pos)) {
+                    int end = src.indexOf("*/", pos + 2);
+                    if (end == -1) {
+                        throw new UnsupportedException("Unterminated comment.");
+                    }
+                    head.append(' ');
+                    pos = end + 2;
+                    continue;
+                } else if (depth == 0 && src.startsWith("//", pos)) {
+                    skipLineComment();
+                    head.append(' ');
+                    continue;
+                } else if (src.startsWith("@{", pos)) {
+                    int end = src.indexOf('}', pos);
+                    if (end == -1) {
+                        throw new UnsupportedException("Unterminated interpolation.");
+                    }
+                    head.append(src, pos, end + 1);
+                    pos = end + 1;
+                    continue;
+                } else if (c == '(' || c == '[') {
+                    depth++;
+                } else if (c == ')' || c == ']') {
+                    depth--;
+                } else if (depth == 0 && (c == ';' || c == '{' || c == '}')) {
+                    break;
+                }
+                head.append(c);
+                pos++;
+            }
+
+            return head.toString().trim();
+        }
+
+        private void skipWhitespace() {
+            while (pos < src.length() && Character.isWhitespace(src.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private void skipLineComment() {
+            int end = src.indexOf('\n', pos);
+            pos = (end == -1 ? src.length() : end + 1);
+        }
+    }
+
+    /**
+     * Parses and evaluates a value expression within a given scope.
+     */
+    private static class Expression {
+
+        private final String text;
+        private final Scope scope;
+        private int pos;
+        private int parens;
+
+        private Expression(String text, Scope scope) {
+            this.text = text;
+            this.scope = scope;
+        }
+
+        private Value parse() {
+            Value value = parseCommaList();
+            skipWhitespace();
+            if (pos < text.length()) {
+                throw new UnsupportedException("Value '" + text + "'.");
+            }
+            return value;
+        }
+
+        private Value parseCommaList() {
+            List<Value> values = new ArrayList<Value>();
+            values.add(parseSpaceList());
+            while (true) {
+                skipWhitespace();
+                if (pos >= text.length() || text.charAt(pos) != ',') {
+                    break;
+                }
+                pos++;
+                values.add(parseSpaceList());
+            }
+            return (values.size() == 1 ? values.get(0) : new ListValue(values, ", "));
+        }
+
+        private Value parseSpaceList() {
+            List<Value> values = new ArrayList<Value>();
+            values.add(parseAdditive());
+            while (true) {
+                skipWhitespace();
+                if (pos >= text.length() || text.charAt(pos) == ',' || text.charAt(pos) == ')') {
+                    break;
+                }
+                values.add(parseAdditive());
+            }
+            return (values.size() == 1 ? values.get(0) : new ListValue(values, " "));
+        }
+
+        private Value parseAdditive() {
+            Value value = parseMultiplicative();
+            while (true) {
+                int start = pos;
+                boolean spaceBefore = skipWhitespace();
+                char operator = (pos < text.length() ? text.charAt(pos) : 0);
+                if (operator != '+' && operator != '-') {
+                    pos = start;
+                    break;
+                }
+                boolean spaceAfter = (pos + 1 < text.length() && Character.isWhitespace(text.charAt(pos + 1)));
+                if (spaceBefore && !spaceAfter) {
+                    // e.g. "1px -1px". A new list value, not a subtraction.
+                    pos = start;
+                    break;
+                }
+                pos++;
+                value = operate(operator, value, parseMultiplicative());
+            }
+            return value;
+        }
+
+        private Value parseMultiplicative() {
+            Value value = parseUnary();
+            while (true) {
+                int start = pos;
+                skipWhitespace();
+                char operator = (pos < text.length() ? text.charAt(pos) : 0);
+                if (operator != '*' && operator != '/') {
+                    pos = start;
+                    break;
+                }
+                if (operator == '/' && parens == 0) {
+                    // e.g. "font: 12px/20px". Division is ambiguous outside of parentheses.
+                    throw new UnsupportedException("Division outside of parentheses in '" + text + "'.");
+                }
+                pos++;
+                Value divisor = parseUnary();
+                value = operate(operator, value, divisor);
+            }
+            return value;
+        }
+
+        private Value parseUnary() {
+            skipWhitespace();
+            if (text.startsWith("-@", pos) || text.startsWith("-(", pos)) {
+                pos++;
+                Value value = parsePrimary();
+                if (!(value instanceof Num)) {
+                    throw new UnsupportedException("Negation of '" + value.toCSS() + "'.");
+                }
+                return new Num(-((Num) value).value, ((Num) value).unit);
+            }
+            return parsePrimary();
+        }
+
+        private Value parsePrimary() {
+            skipWhitespace();
+            if (pos >= text.length()) {
+                throw new UnsupportedException("Unexpected end of value '" + text + "'.");
+            }
+
+            char c = text.charAt(pos);
+            char next = (pos + 1 < text.length() ? text.charAt(pos + 1) : 0);
+            if (c == '(') {
+                pos++;
+                parens++;
+                Value value = parseAdditive();
+                expect(')');
+                parens--;
+                return value;
+            } else if (c == '"' || c == '\'') {
+                return readQuoted();
+            } else if (c == '~' && (next == '"' || next == '\'')) {
+                pos++;
+                return new Keyword(readQuoted().content);
+            } else if (c == '@') {
+                pos++;
+                String name = readName();
+                Value value = (name.length() > 0 ? scope.getVariable(name) : null);
+                if (value == null) {
+                    throw new UnsupportedException("Undefined variable '@" + name + "'.");
+                }
+                return value;
+            } else if (c == '#') {
+                pos++;
+                String hex = readName();
+                if (!hex.matches("[0-9a-fA-F]{3}|[0-9a-fA-F]{6}")) {
+                    throw new UnsupportedException("Color '#" + hex + "'.");
+                }
+                return Color.parse(hex);
+            } else if (Character.isDigit(c) || ((c == '.' || c == '-' || c == '+') && isNumberStart(pos + 1))) {
+                return readNumber();
+            } else if (text.startsWith("!important", pos)) {
+                pos += "!important".length();
+                return new Keyword("!important");
+            } else if (Character.isLetter(c) || c == '_' || (c == '-' && (Character.isLetter(next) || next == '-' || next == '_'))) {
+                String name = readName();
+                if (pos < text.length() && text.charAt(pos) == '(') {
+                    pos++;
+                    if (name.equalsIgnoreCase("url")) {
+                        return readUrl(name);
+                    }
+                    return callFunction(name, readArguments());
+                }
+                return new Keyword(name);
+            }
+
+            throw new UnsupportedException("Value '" + text + "'.");
+        }
+
+        private boolean isNumberStart(int index) {
+            if (index >= text.length()) {
+                return false;
+            }
+            char c = text.charAt(index);
+            return Character.isDigit(c) || (c == '.' && index + 1 < text.length() && Character.isDigit(text.charAt(index + 1)));
+        }
+
+        private Num readNumber() {
+            int start = pos;
+            if (text.charAt(pos) == '-' || text.charAt(pos) == '+') {
+                pos++;
+            }
+            while (pos < text.length() && (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.')) {
+                pos++;
+            }
+            double value;
+            try {
+                value = Double.parseDouble(text.substring(start, pos));
+            } catch (NumberFormatException e) {
+                throw new UnsupportedException("Number '" + text.substring(start, pos) + "'.");
+            }
+
+            int unitStart = pos;
+            if (pos < text.length() && text.charAt(pos) == '%') {
+                pos++;
+            } else {
+                while (pos < text.length() && Character.isLetter(text.charAt(pos))) {
+                    pos++;
+                }
+            }
+            return new Num(value, text.substring(unitStart, pos));
+        }
+
+        private Quoted readQuoted() {
+            int end = skipString(text, pos);
+            char quote = text.charAt(pos);
+            String content = interpolate(text.substring(pos + 1, end - 1), scope);
+            pos = end;
+            return new Quoted(content, quote);
+        }
+
+        private Value readUrl(String name) {
+            List<Value> url = new ArrayList<Value>();
+
+            skipWhitespace();
+            char c = (pos < text.length() ? text.charAt(pos) : 0);
+            if (c == '"' || c == '\'' || c == '@') {
+                url.add(parsePrimary());
+                expect(')');
+            } else {
+                int end = text.indexOf(')', pos);
+                if (end == -1) {
+                    throw new UnsupportedException("Unterminated url() in '" + text + "'.");
+                }
+                url.add(new Keyword(interpolate(text.substring(pos, end).trim(), scope)));
+                pos = end + 1;
+            }
+            return new Call(name, url);
+        }
+
+        private List<Value> readArguments() {
+            List<Value> args = new ArrayList<Value>();
+
+            parens++;
+            skipWhitespace();
+            if (pos < text.length() && text.charAt(pos) == ')') {
+                pos++;
+            } else {
+                while (true) {
+                    args.add(parseSpaceList());
+                    skipWhitespace();
+                    if (pos < text.length() && text.charAt(pos) == ',') {
+                        pos++;
+                    } else {
+                        expect(')');
+                        break;
+                    }
+                }
+            }
+            parens--;
+
+            return args;
+        }
+
+        private String readName() {
+            int start = pos;
+            while (pos < text.length() && isNameChar(text.charAt(pos))) {
+                pos++;
+            }
+            return text.substring(start, pos);
+        }
+
+        private void expect(char c) {
+            skipWhitespace();
+            if (pos >= text.length() || text.charAt(pos) != c) {
+                throw new UnsupportedException("Expected '" + c + "' in '" + text + "'.");
+            }
+            pos++;
+        }
+
+        private boolean skipWhitespace() {
+            int start = pos;
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+            return pos > start;
+        }
+    }
+
+    /**
+     * Variable and mixin scope.
+     * <p/>
+     * Lookups go to the lexical parent scope first and then (for mixin bodies) to the scope of the mixin call.
+     */
+    private static class Scope {
+
+        private final Scope parent;
+        private final Scope caller;
+        private final Map<String, Variable> variables = new HashMap<String, Variable>();
+        private final Map<String, Value> values = new HashMap<String, Value>();
+        private final Map<String, Value> arguments = new HashMap<String, Value>();
+        private final Map<String, List<Mixin>> mixins = new HashMap<String, List<Mixin>>();
+        private final Set<String> evaluating = new HashSet<String>();
+
+        private Scope(Scope parent, Scope caller) {
+            this.parent = parent;
+            this.caller = caller;
+        }
+
+        private void collect(List<Node> nodes) {
+            for (Node node : nodes) {
+                if (node instanceof Variable) {
+                    // Last definition wins (lazy evaluation).
+                    variables.put(((Variable) node).name, (Variable) node);
+                } else if (node instanceof MixinDefinition) {
+                    MixinDefinition definition = (MixinDefinition) node;
+                    addMixin(definition.name, new Mixin(definition.parameters, definition.body, this));
+                } else if (node instanceof Ruleset) {
+                    Ruleset ruleset = (Ruleset) node;
+                    String selector = ruleset.selectors.trim();
+                    if (SIMPLE_SELECTOR.matcher(selector).matches()) {
+                        addMixin(selector, new Mixin(Collections.<Parameter>emptyList(), ruleset.body, this));
+                    }
+                }
+            }
+        }
+
+        private void addMixin(String name, Mixin mixin) {
+            List<Mixin> definitions = mixins.get(name);
+            if (definitions == null) {
+                definitions = new ArrayList<Mixin>();
+                mixins.put(name, definitions);
+            }
+            definitions.add(mixin);
+        }
+
+        private Value getVariable(String name) {
+            Variable variable = variables.get(name);
+            if (variable != null) {
+                Value value = values.get(name);
+                if (value == null) {
+                    if (!evaluating.add(name)) {
+                        throw new UnsupportedException("Recursive variable definition '@" + name + "'.");
+                    }
+                    try {
+                        value = new Expression(variable.value, this).parse();
+                    } finally {
+                        evaluating.remove(name);
+                    }
+                    values.put(name, value);
+                }
+                return value;
+            }
+
+            Value value = arguments.get(name);
+            if (value == null && parent != null) {
+                value = parent.getVariable(name);
+            }
+            if (value == null && caller != null) {
+                value = caller.getVariable(name);
+            }
+            return value;
+        }
+
+        private List<Mixin> getMixins(String name) {
+            List<Mixin> definitions = mixins.get(name);
+            if (definitions == null && parent != null) {
+                definitions = parent.getMixins(name);
+            }
+            if (definitions == null && caller != null) {
+                definitions = caller.getMixins(name);
+            }
+            return definitions;
+        }
+    }
+
+    private static class Frame {
+        private final List<String> selectors;
+        private final List<String> declarations;
+        private final List<Output> output;
+
+        private Frame(List<String> selectors, List<String> declarations, List<Output> output) {
+            this.selectors = selectors;
+            this.declarations = declarations;
+            this.output = output;
+        }
+    }
+
+    private static class Mixin {
+        private final List<Parameter> parameters;
+        private final List<Node> body;
+        private final Scope scope;
+
+        private Mixin(List<Parameter> parameters, List<Node> body, Scope scope) {
+            this.parameters = parameters;
+            this.body = body;
+            this.scope = scope;
+        }
+
+        private boolean accepts(int argumentCount) {
+            if (argumentCount > parameters.size()) {
+                return false;
+            }
+            for (int i = argumentCount; i < parameters.size(); i++) {
+                if (parameters.get(i).defaultValue == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class Parameter {
+        private final String name;
+        private final String defaultValue;
+
+        private Parameter(String name, String defaultValue) {
+            this.name = name;
+            this.defaultValue = defaultValue;
+        }
+    }
+
+    // Parse tree
+
+    private static abstract class Node {
+    }
+
+    private static class Comment extends Node {
+        private final String text;
+
+        private Comment(String text) {
+            this.text = text;
+        }
+    }
+
+    private static class Variable extends Node {
+        private final String name;
+        private final String value;
+
+        private Variable(String name, String value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    private static class Declaration extends Node {
+        private final String property;
+        private final String value;
+
+        private Declaration(String property, String value) {
+            this.property = property;
+            this.value = value;
+        }
+    }
+
+    private static class Ruleset extends Node {
+        private final String selectors;
+        private final List<Node> body;
+
+        private Ruleset(String selectors, List<Node> body) {
+            this.selectors = selectors;
+            this.body = body;
+        }
+    }
+
+    private static class MixinDefinition extends Node {
+        private final String name;
+        private final List<Parameter> parameters;
+        private final List<Node> body;
+
+        private MixinDefinition(String name, List<Parameter> parameters, List<Node> body) {
+            this.name = name;
+            this.parameters = parameters;
+            this.body = body;
+        }
+    }
+
+    private static class MixinCall extends Node {
+        private final String name;
+        private final String arguments;
+
+        private MixinCall(String name, String arguments) {
+            this.name = name;
+            this.arguments = arguments;
+        }
+    }
+
+    private static class AtRule extends Node {
+        private final String name;
+        private final String prelude;
+        private final List<Node> body;
+
+        private AtRule(String name, String prelude, List<Node> body) {
+            this.name = name;
+            this.prelude = prelude;
+            this.body = body;
+        }
+    }
+
+    // Values
+
+    private static abstract class Value {
+        abstract String toCSS();
+
+        /**
+         * The value as inserted by {@code @{var}} interpolation i.e. strings without quotes.
+         */
+        String toInterpolated() {
+            return toCSS();
+        }
+    }
+
+    private static class Num extends Value {
+        private final double value;
+        private final String unit;
+
+        private Num(double value, String unit) {
+            this.value = value;
+            this.unit = unit;
+        }
+
+        private Num operate(char operator, Num other) {
+            String resultUnit;
+            if (unit.length() == 0) {
+                resultUnit = other.unit;
+            } else if (other.unit.length() == 0 || (operator != '*' && operator != '/' && other.unit.equals(unit))) {
+                resultUnit = unit;
+            } else {
+                throw new UnsupportedException("Operation '" + operator + "' on '" + toCSS() + "' and '" + other.toCSS() + "'.");
+            }
+            if (operator == '/' && other.unit.length() > 0) {
+                throw new UnsupportedException("Division by '" + other.toCSS() + "'.");
+            }
+            return new Num(Color.operate(operator, value, other.value), resultUnit);
+        }
+
+        @Override
+        String toCSS() {
+            return formatNumber(value) + unit;
+        }
+    }
+
+    private static class Color extends Value {
+        private final double[] rgb;
+        private final double alpha;
+
+        private Color(double[] rgb, double alpha) {
+            this.rgb = rgb;
+            this.alpha = alpha;
+        }
+
+        private static Color parse(String hex) {
+            if (hex.length() == 3) {
+                hex = new String(new char[] {hex.charAt(0), hex.charAt(0), hex.charAt(1), hex.charAt(1), hex.charAt(2), hex.charAt(2)});
+            }
+            double[] rgb = new double[3];
+            for (int i = 0; i < rgb.length; i++) {
+                rgb[i] = Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+            }
+            return new Color(rgb, 1);
+        }
+
+        private static Color fromHSL(double[] hsla) {
+            double h = (hsla[0] % 360) / 360;
+            double s = clamp(hsla[1]);
+            double l = clamp(hsla[2]);
+            double m2 = (l <= 0.5 ? l * (s + 1) : l + s - l * s);
+            double m1 = l * 2 - m2;
+
+            return new Color(new double[] {
+                    hue(h + 1.0 / 3, m1, m2) * 255, hue(h, m1, m2) * 255, hue(h - 1.0 / 3, m1, m2) * 255
+            }, clamp(hsla[3]));
+        }
+
+        private static double hue(double h, double m1, double m2) {
+            h = (h < 0 ? h + 1 : (h > 1 ? h - 1 : h));
+            if (h * 6 < 1) {
+                return m1 + (m2 - m1) * h * 6;
+            } else if (h * 2 < 1) {
+                return m2;
+            } else if (h * 3 < 2) {
+                return m1 + (m2 - m1) * (2.0 / 3 - h) * 6;
+            }
+            return m1;
+        }
+
+        private static double operate(char operator, double left, double right) {
+            switch (operator) {
+                case '+': return left + right;
+                case '-': return left - right;
+                case '*': return left * right;
+                default:
+                    if (right == 0) {
+                        throw new UnsupportedException("Division by zero.");
+                    }
+                    return left / right;
+            }
+        }
+
+        private double[] toHSL() {
+            double r = rgb[0] / 255, g = rgb[1] / 255, b = rgb[2] / 255;
+            double max = Math.max(r, Math.max(g, b)), min = Math.min(r, Math.min(g, b));
+            double h, s, l = (max + min) / 2, d = max - min;
+
+            if (max == min) {
+                h = s = 0;
+            } else {
+                s = (l > 0.5 ? d / (2 - max - min) : d / (max + min));
+                if (max == r) {
+                    h = (g - b) / d + (g < b ? 6 : 0);
+                } else if (max == g) {
+                    h = (b - r) / d + 2;
+                } else {
+                    h = (r - g) / d + 4;
+                }
+                h /= 6;
+            }
+            return new double[] {h * 360, s, l, alpha};
+        }
+
+        private Color operate(char operator, Color other) {
+            double[] result = new double[3];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = operate(operator, rgb[i], other.rgb[i]);
+            }
+            return new Color(result, alpha * (1 - other.alpha) + other.alpha);
+        }
+
+        @Override
+        String toCSS() {
+            int[] channels = new int[3];
+            for (int i = 0; i < channels.length; i++) {
+                channels[i] = (int) Math.min(255, Math.max(0, Math.round(rgb[i])));
+            }
+
+            if (alpha < 1) {
+                return "rgba(" + channels[0] + ", " + channels[1] + ", " + channels[2] + ", " + formatNumber(Math.max(0, alpha)) + ")";
+            }
+
+            StringBuilder css = new StringBuilder("#");
+            for (int channel : channels) {
+                css.append(channel < 16 ? "0" : "").append(Integer.toHexString(channel));
+            }
+            return css.toString();
+        }
+    }
+
+    private static class Quoted extends Value {
+        private final String content;
+        private final char quote;
+
+        private Quoted(String content, char quote) {
+            this.content = content;
+            this.quote = quote;
+        }
+
+        @Override
+        String toCSS() {
+            return quote + content + quote;
+        }
+
+        @Override
+        String toInterpolated() {
+            return content;
+        }
+    }
+
+    private static class Keyword extends Value {
+        private final String text;
+
+        private Keyword(String text) {
+            this.text = text;
+        }
+
+        @Override
+        String toCSS() {
+            return text;
+        }
+    }
+
+    private static class ListValue extends Value {
+        private final List<Value> values;
+        private final String separator;
+
+        private ListValue(List<Value> values, String separator) {
+            this.values = values;
+            this.separator = separator;
+        }
+
+        @Override
+        String toCSS() {
+            return join(values, separator);
+        }
+    }
+
+    private static class Call extends Value {
+        private final String name;
+        private final List<Value> args;
+
+        private Call(String name, List<Value> args) {
+            this.name = name;
+            this.args = args;
+        }
+
+        @Override
+        String toCSS() {
+            return name + "(" + join(args, ", ") + ")";
+        }
+    }
+
+    private static String join(List<Value> values, String separator) {
+        StringBuilder joined = new StringBuilder();
+        for (Value value : values) {
+            if (joined.length() > 0) {
+                joined.append(separator);
+            }
+            joined.append(value.toCSS());
+        }
+        return joined.toString();
+    }
+
+    // Output tree
+
+    private static abstract class Output {
+    }
+
+    private static class TextOutput extends Output {
+        private final String text;
+
+        private TextOutput(String text) {
+            this.text = text;
+        }
+    }
+
+    private static class RulesetOutput extends Output {
+        private final List<String> selectors;
+        private final List<String> declarations = new ArrayList<String>();
+
+        private RulesetOutput(List<String> selectors) {
+            this.selectors = selectors;
+        }
+    }
+
+    private static class AtRuleOutput extends Output {
+        private final String header;
+        private final List<String> declarations = new ArrayList<String>();
+        private final List<Output> children = new ArrayList<Output>();
+
+        private AtRuleOutput(String header) {
+            this.header = header;
+        }
+    }
+
+    /**
+     * Thrown for LESS constructs outside of the supported subset.
+     */
+    private static class UnsupportedException extends RuntimeException {
+        private UnsupportedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins UI Themes plugin contributors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.uithemes.less;
+
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.uithemes.UIThemeContributor;
+import org.jenkinsci.plugins.uithemes.model.UITheme;
+import org.jenkinsci.plugins.uithemes.model.UIThemeContribution;
+import org.jenkinsci.plugins.uithemes.model.UIThemeImplementation;
+import org.jenkinsci.plugins.uithemes.model.UIThemeSet;
+import org.jenkinsci.plugins.uithemes.util.DigestUtil;
+import org.jenkinsci.plugins.uithemes.util.JenkinsUtil;
+import org.lesscss.Resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Build-time LESS precompiler.
+ * <p/>
+ * Compiles the LESS template of each theme contribution made by a {@link UIThemeContributor}, using the theme
+ * implementation's default configuration, and writes the resulting CSS alongside the template
+ * (as <code>theme-template.css</code>) in the build output directory, so it gets packaged with the template.
+ * At runtime, {@link UIThemeContribution#getPrecompiledCSS(UIThemeImplementation, java.util.Map, String)} serves
+ * this CSS for users on the default configuration, without invoking the {@link LESSProcessor}.
+ * <p/>
+ * Usage: <code>LESSPrecompiler &lt;outputDir&gt; &lt;contributorClass&gt; [&lt;contributorClass&gt; ...]</code>
+ */
+public class LESSPrecompiler {
+
+    private static final Logger LOGGER = Logger.getLogger(LESSPrecompiler.class.getName());
+
+    /**
+     * Name of the precompiled CSS resource, alongside the contribution's <code>theme-template.less</code>.
+     */
+    public static final String PRECOMPILED_CSS_NAME = "theme-template.css";
+
+    /**
+     * Token used in place of the Jenkins root URL in the precompiled CSS. Replaced with the actual root URL at runtime.
+     */
+    public static final String ROOT_URL_TOKEN = "__UITHEMES_ROOT_URL__";
+
+    private static final String HEADER_PREFIX = "/* uithemes-precompiled template:";
+
+    private final File outputDir;
+    private final LESSProcessor lessProcessor = new LESSProcessor(1, LESSProcessor.CHECKOUT_TIMEOUT);
+
+    public LESSPrecompiler(File outputDir, File workDir) throws IOException {
+        this.outputDir = outputDir;
+
+        JenkinsUtil.JENKINS_USER_HOME = new File(workDir, "users");
+        JenkinsUtil.JENKINS_ANONYMOUS_USER_HOME = new File(JenkinsUtil.JENKINS_USER_HOME, "anonymous");
+        JenkinsUtil.JENKINS_ANONYMOUS_USER_HOME.mkdirs();
+
+        Properties variables = new Properties();
+        variables.setProperty("rootURL", ROOT_URL_TOKEN);
+        JenkinsUtil.createJenkinsEnvVariablesLESSFile(variables);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Usage: LESSPrecompiler <outputDir> <contributorClass> [<contributorClass> ...]");
+        }
+
+        File outputDir = new File(args[0]);
+        LESSPrecompiler precompiler = new LESSPrecompiler(outputDir, new File(outputDir, "../uithemes-precompile"));
+        for (int i = 1; i < args.length; i++) {
+            Class<?> contributorClass = Class.forName(args[i]);
+            precompiler.precompile((UIThemeContributor) contributorClass.newInstance());
+        }
+    }
+
+    /**
+     * Precompile the theme contributions made by the supplied contributor.
+     * <p/>
+     * Contributions that fail to compile (e.g. because they import LESS resources that are only available
+     * at runtime) are logged and skipped. They will be compiled at runtime.
+     *
+     * @param contributor The contributor.
+     * @return The number of contributions precompiled.
+     */
+    public int precompile(UIThemeContributor contributor) {
+        UIThemeSet themeSet = new PrecompileThemeSet();
+        int count = 0;
+
+        contributor.contribute(themeSet);
+        for (String themeName : themeSet.getThemeNames()) {
+            UITheme theme = themeSet.getTheme(themeName);
+            for (String themeImplName : theme.getThemeImplNames()) {
+                UIThemeImplementation impl = theme.getImpl(themeImplName);
+                for (UIThemeContribution themeContribution : impl.getContributions()) {
+                    if (themeContribution.getTemplateDigest() != null && precompile(themeContribution, impl)) {
+                        count++;
+                    }
+                }
+            }
+        }
+
+        return count;
+    }
+
+    private boolean precompile(UIThemeContribution themeContribution, UIThemeImplementation impl) {
+        File cssFile = new File(outputDir, getPrecompiledCSSPath(themeContribution));
+
+        try {
+            Map<String, String> config = themeContribution.getCompileConfig(impl, UIThemeContribution.getDefaultConfig(impl));
+            Resource lessResource = themeContribution.createLessResource(JenkinsUtil.JENKINS_ANONYMOUS_USER_HOME, config);
+            String css = lessProcessor.process(lessResource);
+
+            FileUtils.write(cssFile, getHeader(themeContribution.getTemplateDigest(), getConfigDigest(config)) + css, "UTF-8");
+            LOGGER.log(Level.INFO, "Precompiled theme contribution ''{0}'' to ''{1}''.", new Object[] {themeContribution.getQName(), cssFile.getPath()});
+            return true;
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, String.format("Unable to precompile theme contribution '%s'. It will be compiled at runtime.", themeContribution.getQName()), e);
+            return false;
+        }
+    }
+
+    /**
+     * Get the classpath path of the precompiled CSS for a theme contribution.
+     * @param themeContribution The theme contribution.
+     * @return The precompiled CSS path.
+     */
+    public static String getPrecompiledCSSPath(UIThemeContribution themeContribution) {
+        return String.format("/jenkins-themes/%s/%s/%s/%s", themeContribution.getThemeName(), themeContribution.getThemeImplName(),
+                themeContribution.getContributionName(), PRECOMPILED_CSS_NAME);
+    }
+
+    /**
+     * Get the header line written at the start of the precompiled CSS, identifying the template and the
+     * (build-time default) configuration it was compiled from.
+     * @param templateDigest The template digest.
+     * @param configDigest The configuration digest (see {@link #getConfigDigest(Map)}).
+     * @return The header line.
+     */
+    public static String getHeader(String templateDigest, String configDigest) {
+        return HEADER_PREFIX + templateDigest + " config:" + configDigest + " */\n";
+    }
+
+    /**
+     * Get the header prefix identifying the template the precompiled CSS was compiled from.
+     * @param templateDigest The template digest.
+     * @return The header prefix.
+     */
+    public static String getHeaderPrefix(String templateDigest) {
+        return HEADER_PREFIX + templateDigest + " config:";
+    }
+
+    /**
+     * Get the digest of a template configuration, as recorded in the precompiled CSS header.
+     * @param config The configuration the template is compiled with.
+     * @return The configuration digest.
+     */
+    public static String getConfigDigest(Map<String, String> config) {
+        return DigestUtil.sha1(new TreeMap<String, String>(config).toString());
+    }
+
+    /**
+     * Theme set that registers the contributor's themes on demand, since themes are typically registered by
+     * another contributor (e.g. Jenkins core) that is not available at build time.
+     */
+    private static class PrecompileThemeSet extends UIThemeSet {
+        @Override
+        public UIThemeImplementation registerThemeImpl(String themeName, String themeImplName, String themeImplTitle, String themeImplDescription) {
+            registerTheme(themeName, themeName);
+            return super.registerThemeImpl(themeName, themeImplName, themeImplTitle, themeImplDescription);
+        }
+
+        @Override
+        public boolean contribute(UIThemeContribution contribution) {
+            registerTheme(contribution.getThemeName(), contribution.getThemeName());
+            return super.contribute(contribution);
+        }
+    }
+}
@@ -24,36 +24,612 @@
 package org.jenkinsci.plugins.uithemes.less;
 
 import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.uithemes.util.BoundedCache;
+import org.jenkinsci.plugins.uithemes.util.DigestUtil;
 import org.lesscss.LessCompiler;
 import org.lesscss.LessException;
 import org.lesscss.LessSource;
 import org.lesscss.Resource;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
+ * LESS processor.
+ * <p/>
+ * The underlying (Rhino based) {@link LessCompiler} is not thread-safe, so the processor maintains a pool of
+ * compiler instances, allowing multiple LESS resources to be compiled concurrently. Compiler instances are created
+ * lazily (they are expensive to initialize), up to the configured pool size.
+ * <p/>
+ * The {@link #ENGINE_JAVA java} engine first tries the pure Java {@link JavaLESSCompiler}, which handles the subset
+ * of LESS used by most theme contribution templates at a fraction of the cost, falling back to the Rhino compilers
+ * for any LESS it does not support. The {@link #ENGINE_RHINO rhino} engine (the default) always uses the Rhino
+ * compilers.
+ * <p/>
+ * Compiled CSS is cached per LESS resource and reused (without recompiling) for as long as the last modified time
+ * of the resource and all of its imports, and the content of the resource itself, are unchanged.
+ *
  * @author <a href="mailto:tom.fennelly@gmail.com">tom.fennelly@gmail.com</a>
  */
 public class LESSProcessor {
 
-    private final LessCompiler lessCompiler;
+    private static final Logger LOGGER = Logger.getLogger(LESSProcessor.class.getName());
+
+    /**
+     * Maximum number of LESS compiler instances. Defaults to the number of available processors.
+     */
+    public static final int POOL_SIZE = Integer.getInteger(LESSProcessor.class.getName() + ".poolSize", Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Maximum time (in milliseconds) to wait for a LESS compiler instance to become available.
+     */
+    public static final long CHECKOUT_TIMEOUT = Long.getLong(LESSProcessor.class.getName() + ".checkoutTimeout", 60000);
+
+    /**
+     * Maximum time (in milliseconds) a single Rhino LESS compilation may take before it is abandoned. Zero or less
+     * disables the timeout.
+     */
+    public static final long COMPILE_TIMEOUT = Long.getLong(LESSProcessor.class.getName() + ".compileTimeout", 30000);
+
+    /**
+     * Maximum size (in bytes) of the compiled CSS cache, used to skip recompiling unchanged LESS resources. Zero
+     * disables the cache.
+     */
+    public static final long COMPILED_CACHE_MAX_BYTES = Long.getLong(LESSProcessor.class.getName() + ".compiledCacheMaxBytes", 4 * 1024 * 1024);
+
+    /**
+     * Always compile with the Rhino based {@link LessCompiler}.
+     */
+    public static final String ENGINE_RHINO = "rhino";
+
+    /**
+     * Compile with the pure Java {@link JavaLESSCompiler}, falling back to the Rhino based {@link LessCompiler} for
+     * unsupported LESS.
+     */
+    public static final String ENGINE_JAVA = "java";
+
+    /**
+     * The LESS engine to use ({@link #ENGINE_RHINO} or {@link #ENGINE_JAVA}). Defaults to {@link #ENGINE_RHINO}.
+     */
+    public static final String ENGINE = System.getProperty(LESSProcessor.class.getName() + ".engine", ENGINE_RHINO);
+
+    /**
+     * Synthetic stylesheet used to warm up the LESS engine. Exercises the commonly used LESS features
+     * (variables, nesting, mixins, operations and color functions).
+     */
+    private static final String WARM_UP_LESS =
+            "@base-color: #5b83ad;\n" +
+            "@light-color: lighten(@base-color, 10%) + #111;\n" +
+            ".rounded(@radius: 4px) { border-radius: @radius; }\n" +
+            "#warm-up {\n" +
+            "  color: darken(@base-color, 10%);\n" +
+            "  background: fade(@light-color, 50%);\n" +
+            "  width: (100px * 2);\n" +
+            "  .rounded(2px);\n" +
+            "  .inner { &:hover { color: spin(@base-color, 30); } }\n" +
+            "}\n";
+
+    /**
+     * How much longer than the compile timeout to wait for a compile worker to abort itself, before abandoning it.
+     */
+    private static final long DEADLINE_GRACE = 5000;
+
+    private static final List<String> OPTIONS = Collections.unmodifiableList(Arrays.asList(
+            "--relative-urls",
+            "--clean-css"
+    ));
+
+    private final int poolSize;
+    private final long checkoutTimeout;
+    private final BlockingQueue<LessCompiler> idleCompilers = new LinkedBlockingQueue<LessCompiler>();
+    private final AtomicInteger createdCount = new AtomicInteger();
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final AtomicLong compileCount = new AtomicLong();
+    private final AtomicLong compileTime = new AtomicLong();
+    private final AtomicLong checkoutWaitCount = new AtomicLong();
+    private final AtomicLong checkoutTimeoutCount = new AtomicLong();
+    private final JavaLESSCompiler javaCompiler = new JavaLESSCompiler();
+    private final AtomicLong javaCompileCount = new AtomicLong();
+    private final AtomicLong javaFallbackCount = new AtomicLong();
+    private volatile String engine = ENGINE_RHINO;
+    private volatile long compileTimeout = COMPILE_TIMEOUT;
+    private final AtomicLong compileTimeoutCount = new AtomicLong();
+    private ThreadPoolExecutor compileExecutor;
+    private final DeadlineContextFactory contextFactory;
+    private final BoundedCache<String, CompiledCSS> compiledCache = new BoundedCache<String, CompiledCSS>(COMPILED_CACHE_MAX_BYTES) {
+        @Override
+        protected long weigh(CompiledCSS compiledCSS) {
+            return compiledCSS.css.length() * 2;
+        }
+    };
+    private final AtomicLong compileSkipCount = new AtomicLong();
 
     public LESSProcessor() {
-        List<String> options = Arrays.asList(
-                "--relative-urls",
-                "--clean-css"
-        );
-        lessCompiler = new LessCompiler(options);
+        this(POOL_SIZE, CHECKOUT_TIMEOUT);
+    }
+
+    public LESSProcessor(int poolSize, long checkoutTimeout) {
+        this.poolSize = Math.max(1, poolSize);
+        this.checkoutTimeout = checkoutTimeout;
+        if (ENGINE_JAVA.equals(ENGINE)) {
+            this.engine = ENGINE_JAVA;
+        } else if (!ENGINE_RHINO.equals(ENGINE)) {
+            LOGGER.log(Level.WARNING, "Unknown LESS engine ''{0}''. Using ''{1}''.", new Object[] {ENGINE, ENGINE_RHINO});
+        }
+        // Create the first compiler up front. Fails fast (NoClassDefFoundError) if LESS processing is not available.
+        idleCompilers.add(createCompiler());
+        contextFactory = new DeadlineContextFactory();
     }
 
     public String process(Resource lessResource) throws IOException, LessException {
-        return lessCompiler.compile(new LessSource(lessResource));
+        // Reads the resource and all its imports.
+        LessSource lessSource = new LessSource(lessResource);
+        String name = lessResource.getName();
+        long lastModified = lessSource.getLastModifiedIncludingImports();
+        String contentDigest = DigestUtil.sha1(lessSource.getContent());
+
+        CompiledCSS compiledCSS = compiledCache.get(name);
+        if (compiledCSS != null && compiledCSS.isUpToDate(lastModified, contentDigest)) {
+            compileSkipCount.incrementAndGet();
+            return compiledCSS.css;
+        }
+
+        String css = process(lessResource, lessSource);
+        compiledCache.put(name, new CompiledCSS(lastModified, contentDigest, css));
+        return css;
+    }
+
+    private String process(Resource lessResource, LessSource lessSource) throws LessException {
+        if (ENGINE_JAVA.equals(engine)) {
+            long start = System.nanoTime();
+            try {
+                String css = javaCompiler.compile(lessSource.getNormalizedContent());
+                javaCompileCount.incrementAndGet();
+                compileCount.incrementAndGet();
+                return css;
+            } catch (LessException e) {
+                javaFallbackCount.incrementAndGet();
+                LOGGER.log(Level.FINE, "Falling back to the Rhino LESS engine for ''{0}'': {1}", new Object[] {lessResource.getName(), e.getMessage()});
+            } finally {
+                compileTime.addAndGet(System.nanoTime() - start);
+            }
+        }
+
+        LessCompiler lessCompiler = checkout();
+        long start = System.nanoTime();
+
+        try {
+            return compile(lessCompiler, lessSource, lessResource.getName());
+        } finally {
+            compileCount.incrementAndGet();
+            compileTime.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Compile on a worker thread, so a runaway compilation (e.g. a pathological contributor template) can be
+     * abandoned after the {@link #getCompileTimeout() compile timeout}, instead of blocking the caller indefinitely.
+     * <p/>
+     * Rhino does not respond to interrupts, so the worker compiles in a Rhino {@link Context} that checks the compile
+     * deadline as the script runs (see {@link DeadlineContextFactory}), and aborts the compilation once the deadline
+     * has passed. The timed out compiler instance is dropped from the pool rather than being reused. Otherwise, the
+     * compiler is checked back in.
+     */
+    private String compile(final LessCompiler lessCompiler, final LessSource lessSource, final String name) throws LessException {
+        final long timeout = compileTimeout;
+        if (timeout <= 0) {
+            try {
+                return lessCompiler.compile(lessSource);
+            } finally {
+                checkin(lessCompiler);
+            }
+        }
+
+        boolean abandoned = false;
+        final long deadline = System.currentTimeMillis() + timeout;
+        Future<String> compilation;
+        try {
+            compilation = getCompileExecutor().submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    // LessCompiler enters the Rhino context with Context.enter(), which reuses the one entered here.
+                    Context context = contextFactory.enterContext();
+                    try {
+                        context.putThreadLocal(DeadlineContextFactory.DEADLINE, deadline);
+                        return lessCompiler.compile(lessSource);
+                    } catch (DeadlineExceededError e) {
+                        throw new LESSCompileTimeoutException(String.format("Compilation of LESS resource '%s' timed out after %dms.", name, timeout));
+                    } finally {
+                        Context.exit();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            checkin(lessCompiler);
+            throw new LESSCompileRetryableException(String.format("Unable to compile LESS resource '%s'. All LESS compiler threads are busy.", name), e);
+        }
+        try {
+            // The worker aborts itself at the deadline. Allow it a little longer to get there.
+            return compilation.get(timeout + DEADLINE_GRACE, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            abandoned = true;
+            compilation.cancel(true);
+            compileTimeoutCount.incrementAndGet();
+            throw new LESSCompileTimeoutException(String.format("Compilation of LESS resource '%s' timed out after %dms.", name, timeout));
+        } catch (InterruptedException e) {
+            abandoned = true;
+            compilation.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new LESSCompileRetryableException(String.format("Interrupted while compiling LESS resource '%s'.", name), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof LESSCompileTimeoutException) {
+                abandoned = true;
+                compileTimeoutCount.incrementAndGet();
+                throw (LESSCompileTimeoutException) cause;
+            } else if (cause instanceof LessException) {
+                throw (LessException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new LessException(String.format("Error compiling LESS resource '%s'.", name), cause);
+        } finally {
+            if (abandoned) {
+                abandon(lessCompiler);
+            } else {
+                checkin(lessCompiler);
+            }
+        }
+    }
+
+    /**
+     * Warm up the LESS engine by compiling a synthetic stylesheet, so the (expensive) first time loading and
+     * interpretation of less.js by Rhino does not land on a user request.
+     *
+     * @throws IOException Error reading the synthetic stylesheet.
+     * @throws LessException Error compiling the synthetic stylesheet.
+     */
+    public void warmUp() throws IOException, LessException {
+        long start = System.currentTimeMillis();
+        Resource warmUpResource = new StringResource("uithemes-warm-up.less", WARM_UP_LESS);
+        LessSource lessSource = new LessSource(warmUpResource);
+        LessCompiler lessCompiler = checkout();
+
+        try {
+            // Always warm up Rhino, even when using the Java engine, because it is still used as the fallback.
+            lessCompiler.compile(lessSource);
+        } finally {
+            checkin(lessCompiler);
+        }
+        if (ENGINE_JAVA.equals(engine)) {
+            javaCompiler.compile(lessSource.getNormalizedContent());
+        }
+        LOGGER.log(Level.FINE, "LESS engine warm-up completed in {0}ms.", System.currentTimeMillis() - start);
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    /**
+     * Set the LESS engine.
+     * @param engine {@link #ENGINE_RHINO} or {@link #ENGINE_JAVA}.
+     * @return {@code this} processor.
+     */
+    public LESSProcessor setEngine(String engine) {
+        if (!ENGINE_RHINO.equals(engine) && !ENGINE_JAVA.equals(engine)) {
+            throw new IllegalArgumentException(String.format("Unknown LESS engine '%s'. Expected '%s' or '%s'.", engine, ENGINE_RHINO, ENGINE_JAVA));
+        }
+        // The engines do not produce byte-for-byte identical CSS.
+        compiledCache.clear();
+        this.engine = engine;
+        return this;
+    }
+
+    public long getCompileTimeout() {
+        return compileTimeout;
+    }
+
+    /**
+     * Set the maximum time a single Rhino LESS compilation may take.
+     * @param compileTimeout The timeout in milliseconds. Zero or less disables the timeout.
+     * @return {@code this} processor.
+     */
+    public LESSProcessor setCompileTimeout(long compileTimeout) {
+        this.compileTimeout = compileTimeout;
+        return this;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Get the number of compiler instances created.
+     */
+    public int getCreatedCount() {
+        return createdCount.get();
+    }
+
+    /**
+     * Get the number of compiler instances currently checked out.
+     */
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    /**
+     * Get the number of compiler instances currently idle in the pool.
+     */
+    public int getIdleCount() {
+        return idleCompilers.size();
+    }
+
+    /**
+     * Get the total number of LESS compilations.
+     */
+    public long getCompileCount() {
+        return compileCount.get();
+    }
+
+    /**
+     * Get the total time (in milliseconds) spent compiling LESS.
+     */
+    public long getCompileTime() {
+        return TimeUnit.NANOSECONDS.toMillis(compileTime.get());
     }
 
-    public byte[] processToBytes(Resource lessResource) throws IOException, LessException {
-        return process(lessResource).getBytes(Charset.forName("UTF-8"));
+    /**
+     * Get the number of times a compilation had to wait for a compiler instance to become available.
+     */
+    public long getCheckoutWaitCount() {
+        return checkoutWaitCount.get();
+    }
+
+    /**
+     * Get the number of times a compilation timed out waiting for a compiler instance.
+     */
+    public long getCheckoutTimeoutCount() {
+        return checkoutTimeoutCount.get();
+    }
+
+    /**
+     * Get the number of compilations performed by the pure Java engine.
+     */
+    public long getJavaCompileCount() {
+        return javaCompileCount.get();
+    }
+
+    /**
+     * Get the number of times the pure Java engine fell back to Rhino because of unsupported LESS.
+     */
+    public long getJavaFallbackCount() {
+        return javaFallbackCount.get();
+    }
+
+    /**
+     * Get the number of compilations abandoned because they exceeded the compile timeout.
+     */
+    public long getCompileTimeoutCount() {
+        return compileTimeoutCount.get();
+    }
+
+    /**
+     * Get the number of times compilation was skipped because the LESS resource and its imports were unchanged
+     * since they were last compiled.
+     */
+    public long getCompileSkipCount() {
+        return compileSkipCount.get();
+    }
+
+    private LessCompiler checkout() throws LessException {
+        LessCompiler lessCompiler = idleCompilers.poll();
+
+        if (lessCompiler == null) {
+            lessCompiler = createCompilerIfBelowPoolSize();
+        }
+        if (lessCompiler == null) {
+            checkoutWaitCount.incrementAndGet();
+            try {
+                lessCompiler = idleCompilers.poll(checkoutTimeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new LESSCompileRetryableException("Interrupted while waiting for a LESS compiler.", e);
+            }
+            if (lessCompiler == null) {
+                checkoutTimeoutCount.incrementAndGet();
+                throw new LESSCompileRetryableException(String.format("Timed out after %dms waiting for a LESS compiler. All %d compilers are in use.", checkoutTimeout, poolSize));
+            }
+        }
+
+        activeCount.incrementAndGet();
+        return lessCompiler;
+    }
+
+    private void checkin(LessCompiler lessCompiler) {
+        activeCount.decrementAndGet();
+        idleCompilers.add(lessCompiler);
+    }
+
+    /**
+     * Drop a compiler whose compilation timed out or was interrupted (its Rhino scope may be left mid-compilation),
+     * making room in the pool for a new one.
+     */
+    private void abandon(LessCompiler lessCompiler) {
+        activeCount.decrementAndGet();
+        createdCount.decrementAndGet();
+        LOGGER.log(Level.WARNING, "Dropped a LESS compiler after a timed out or interrupted compilation.");
+    }
+
+    /**
+     * Get the executor for the compile worker threads.
+     * <p/>
+     * Bounded at twice the pool size: one thread per compiler instance, plus room for as many compilations that
+     * are still running after being abandoned (e.g. stuck outside of Rhino's instruction counting). Compilations
+     * beyond that are rejected, rather than leaking more threads.
+     */
+    private synchronized ThreadPoolExecutor getCompileExecutor() {
+        if (compileExecutor == null) {
+            compileExecutor = new ThreadPoolExecutor(0, poolSize * 2, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger threadCount = new AtomicInteger();
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "UIThemes LESS compiler " + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return compileExecutor;
+    }
+
+    private LessCompiler createCompilerIfBelowPoolSize() {
+        while (true) {
+            int created = createdCount.get();
+            if (created >= poolSize) {
+                return null;
+            }
+            if (createdCount.compareAndSet(created, created + 1)) {
+                try {
+                    LessCompiler lessCompiler = new LessCompiler(OPTIONS);
+                    LOGGER.log(Level.FINE, "Created LESS compiler {0} of {1}.", new Object[] {created + 1, poolSize});
+                    return lessCompiler;
+                } catch (RuntimeException e) {
+                    createdCount.decrementAndGet();
+                    throw e;
+                } catch (Error e) {
+                    createdCount.decrementAndGet();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private LessCompiler createCompiler() {
+        createdCount.incrementAndGet();
+        return new LessCompiler(OPTIONS);
+    }
+
+    /**
+     * Rhino context factory for the compile worker threads.
+     * <p/>
+     * Has Rhino (in interpreted mode) call back every {@link #INSTRUCTION_OBSERVER_THRESHOLD} instructions, and
+     * aborts the script with a {@link DeadlineExceededError} once the compile deadline set on the context has passed.
+     * Not installed as the global context factory. It only applies to the contexts entered through it.
+     */
+    private static class DeadlineContextFactory extends ContextFactory {
+
+        private static final Object DEADLINE = DeadlineContextFactory.class.getName() + ".deadline";
+        private static final int INSTRUCTION_OBSERVER_THRESHOLD = 10000;
+
+        @Override
+        protected Context makeContext() {
+            Context context = super.makeContext();
+            // Instruction counting is only done when interpreting.
+            context.setOptimizationLevel(-1);
+            context.setInstructionObserverThreshold(INSTRUCTION_OBSERVER_THRESHOLD);
+            return context;
+        }
+
+        @Override
+        protected void observeInstructionCount(Context context, int instructionCount) {
+            Long deadline = (Long) context.getThreadLocal(DEADLINE);
+            if (deadline != null && System.currentTimeMillis() > deadline) {
+                throw new DeadlineExceededError();
+            }
+        }
+    }
+
+    /**
+     * Thrown from the Rhino instruction observer to abort a compilation that passed its deadline. An {@link Error},
+     * so it is not caught and wrapped by the script or {@link LessCompiler}.
+     */
+    private static class DeadlineExceededError extends Error {
+        private DeadlineExceededError() {
+            super("LESS compilation deadline exceeded.");
+        }
+    }
+
+    /**
+     * Compiled CSS, along with the state of the LESS resource it was compiled from.
+     */
+    private static class CompiledCSS {
+
+        private final long lastModified;
+        private final String contentDigest;
+        private final String css;
+
+        private CompiledCSS(long lastModified, String contentDigest, String css) {
+            this.lastModified = lastModified;
+            this.contentDigest = contentDigest;
+            this.css = css;
+        }
+
+        private boolean isUpToDate(long lastModified, String contentDigest) {
+            return this.lastModified == lastModified && this.contentDigest.equals(contentDigest);
+        }
+    }
+
+    /**
+     * In-memory LESS resource, with no imports.
+     */
+    private static class StringResource implements Resource {
+
+        private final String name;
+        private final String content;
+
+        private StringResource(String name, String content) {
+            this.name = name;
+            this.content = content;
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public long lastModified() {
+            return 0;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new ByteArrayInputStream(content.getBytes(Charset.forName("UTF-8")));
+        }
+
+        @Override
+        public Resource createRelative(String relativeResourcePath) throws IOException {
+            throw new IOException(String.format("Resource '%s' does not support imports ('%s').", name, relativeResourcePath));
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
     }
 }
@@ -23,19 +23,29 @@
  */
 package org.jenkinsci.plugins.uithemes.less;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.jenkinsci.plugins.uithemes.UIThemesProcessor;
 import org.jenkinsci.plugins.uithemes.model.UIThemeContribution;
 import org.jenkinsci.plugins.uithemes.util.JenkinsUtil;
 import org.lesscss.FileResource;
 import org.lesscss.Resource;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.JarURLConnection;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -49,12 +59,33 @@ public class URLResource implements Resource {
     public static final String CORE_LESS_PREFIX = "/jenkins-themes/";
     public static final String JENKINS_ENV_ALIAS = CORE_LESS_PREFIX + "env.less";
 
+    /**
+     * Existence (and last modified time) of non-file resource URLs (e.g. "jar:" entries), keyed by URL.
+     * <p/>
+     * Probing a JAR entry means a zip lookup, so we only do it once per URL. Cleared via {@link #clearCache()}
+     * when contributors are added/removed (i.e. on plugin reload).
+     */
+    private static final Map<String, Boolean> urlExistsCache = new ConcurrentHashMap<String, Boolean>();
+    private static final Map<String, Long> urlLastModifiedCache = new ConcurrentHashMap<String, Long>();
+    /**
+     * Core LESS resources (e.g. shared mixin libraries) resolved through a contributor's classloader, keyed by
+     * contributor class and then resource path. Holds the resolved URL and the resource content, so shared LESS
+     * imports are resolved and read once per plugin version, instead of for every user and every compile. Weakly
+     * keyed so as not to pin the classloader of an unloaded plugin.
+     */
+    private static final Map<Class<?>, Map<String, ClasspathResource>> classpathResourceCache = Collections.synchronizedMap(new WeakHashMap<Class<?>, Map<String, ClasspathResource>>());
+    private static final ClasspathResource NO_CLASSPATH_RESOURCE = new ClasspathResource(null);
+
     private URI resConfigURI;
     private URL baseURL;
     private URL resClasspathURL;
     private UIThemeContribution viaContribution;
     private URLResource coreVariables;
     private UIThemesProcessor themesProcessor;
+    private volatile Boolean exists;
+    private volatile Long lastModified;
+    private String classpathPath;
+    private ClasspathResource classpathResource;
 
     public URLResource(URL resClasspathURL, UIThemeContribution viaContribution) {
         this.resClasspathURL = resClasspathURL;
@@ -102,6 +133,15 @@ public class URLResource implements Resource {
         return this;
     }
 
+    /**
+     * Set the path of this resource on the contributor classpath, so relative imports from it can be resolved
+     * through the (cached) contributor classpath.
+     */
+    URLResource setClasspathPath(String classpathPath) {
+        this.classpathPath = classpathPath;
+        return this;
+    }
+
     public URI getResConfigURI() {
         return resConfigURI;
     }
@@ -112,35 +152,144 @@ public class URLResource implements Resource {
     }
 
     public boolean exists(Level logLevel) {
-        if (resClasspathURL != null) {
+        Boolean resourceExists = exists;
+        if (resourceExists == null) {
+            resourceExists = exists(resClasspathURL);
+            exists = resourceExists;
+        }
+        if (!resourceExists) {
+            LOGGER.log(logLevel, String.format("LESS resource '%s' does not exist or is not accessible through the specified URL.", getName()));
+        }
+        return resourceExists;
+    }
+
+    /**
+     * Clear the cached resource existence and classpath resolution info.
+     * <p/>
+     * Needs to be called whenever the set of contributors changes (e.g. plugin install/reload).
+     */
+    public static void clearCache() {
+        urlExistsCache.clear();
+        urlLastModifiedCache.clear();
+        classpathResourceCache.clear();
+    }
+
+    private static boolean exists(URL url) {
+        if (url == null) {
+            return false;
+        }
+
+        if (url.getProtocol().equalsIgnoreCase("file")) {
+            // Cheap to check and can change on disk (e.g. user theme files), so no need to cache.
             try {
-                InputStream stream = resClasspathURL.openStream();
-                if (stream != null) {
-                    try {
-                        return true;
-                    } finally {
-                        stream.close();
-                    }
-                }
-            } catch (IOException e) {
-                // Fall through and fail...
+                return new File(url.toURI()).exists();
+            } catch (Exception e) {
+                // Fall through and probe the URL...
             }
         }
-        LOGGER.log(logLevel, String.format("LESS resource '%s' does not exist or is not accessible through the specified URL.", getName()));
+
+        String urlAsString = url.toString();
+        Boolean urlExists = urlExistsCache.get(urlAsString);
+        if (urlExists == null) {
+            urlExists = openStreamProbe(url);
+            urlExistsCache.put(urlAsString, urlExists);
+        }
+        return urlExists;
+    }
+
+    private static boolean openStreamProbe(URL url) {
+        try {
+            InputStream stream = url.openStream();
+            if (stream != null) {
+                stream.close();
+                return true;
+            }
+        } catch (IOException e) {
+            // Fall through and fail...
+        }
         return false;
     }
 
+    /**
+     * Get the resource last modified time.
+     * <p/>
+     * For a file this is the file modification time, and for a JAR entry it is the entry time. If the modification
+     * time cannot be determined, the resource is treated as always modified (i.e. the current time is returned).
+     *
+     * @return The resource last modified time.
+     */
     @Override
     public long lastModified() {
-        // TODO: Work this out properly.  ATM it is always modified
-        return System.currentTimeMillis();
+        Long resourceLastModified = lastModified;
+        if (resourceLastModified != null) {
+            return resourceLastModified;
+        }
+
+        if (resClasspathURL == null) {
+            return System.currentTimeMillis();
+        }
+
+        if (resClasspathURL.getProtocol().equalsIgnoreCase("file")) {
+            // Can change on disk, so always check.
+            try {
+                long fileLastModified = new File(resClasspathURL.toURI()).lastModified();
+                if (fileLastModified > 0) {
+                    return fileLastModified;
+                }
+                return System.currentTimeMillis();
+            } catch (Exception e) {
+                // Fall through and try the URL connection...
+            }
+        }
+
+        String urlAsString = resClasspathURL.toString();
+        resourceLastModified = urlLastModifiedCache.get(urlAsString);
+        if (resourceLastModified == null) {
+            long urlLastModified = getURLLastModified(resClasspathURL);
+            if (urlLastModified <= 0) {
+                return System.currentTimeMillis();
+            }
+            resourceLastModified = urlLastModified;
+            urlLastModifiedCache.put(urlAsString, resourceLastModified);
+        }
+        lastModified = resourceLastModified;
+
+        return resourceLastModified;
+    }
+
+    private static long getURLLastModified(URL url) {
+        try {
+            URLConnection connection = url.openConnection();
+            if (connection instanceof JarURLConnection) {
+                // Doesn't open the entry stream.
+                JarEntry jarEntry = ((JarURLConnection) connection).getJarEntry();
+                return (jarEntry != null ? jarEntry.getTime() : -1);
+            }
+            return connection.getLastModified();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Unable to determine the last modified time of LESS resource ''{0}''.", url);
+            return -1;
+        }
     }
 
     @Override
     public InputStream getInputStream() throws IOException {
-        if (exists()) {
-            return resClasspathURL.openStream();
+        if (classpathResource != null) {
+            return new ByteArrayInputStream(classpathResource.getContent());
+        }
+        if (resClasspathURL != null && !Boolean.FALSE.equals(exists)) {
+            // Just open it. No point probing for existence first, only to open it again.
+            try {
+                InputStream stream = resClasspathURL.openStream();
+                exists = (stream != null);
+                if (stream != null) {
+                    return stream;
+                }
+            } catch (IOException e) {
+                exists = false;
+            }
         }
+        exists(Level.WARNING);
         return null;
     }
 
@@ -156,6 +305,15 @@ public class URLResource implements Resource {
                 if (classpathRes != null) {
                     return classpathRes;
                 }
+            } else if (classpathPath != null) {
+                // A relative import from a shared classpath resource, so it is (most likely) shared too.
+                String resolvedPath = URI.create(classpathPath).resolve(relativeResourcePath).toString();
+                if (resolvedPath.startsWith(CORE_LESS_PREFIX)) {
+                    URLResource classpathRes = getClasspathLESSResource(resolvedPath);
+                    if (classpathRes != null) {
+                        return classpathRes;
+                    }
+                }
             }
 
             String urlAsString = resClasspathURL.toString();
@@ -195,11 +353,33 @@ public class URLResource implements Resource {
     }
 
     private URLResource getClasspathLESSResource(String resourcePath) {
-        URL resUrl = viaContribution.getContributor().getResource(resourcePath);
-        if (resUrl == null) {
+        Class<?> contributor = viaContribution.getContributor();
+        Map<String, ClasspathResource> contributorResources;
+
+        synchronized (classpathResourceCache) {
+            contributorResources = classpathResourceCache.get(contributor);
+            if (contributorResources == null) {
+                contributorResources = new ConcurrentHashMap<String, ClasspathResource>();
+                classpathResourceCache.put(contributor, contributorResources);
+            }
+        }
+
+        ClasspathResource resource = contributorResources.get(resourcePath);
+        if (resource == null) {
+            URL resUrl = contributor.getResource(resourcePath);
+            resource = (resUrl != null ? new ClasspathResource(resUrl) : NO_CLASSPATH_RESOURCE);
+            contributorResources.put(resourcePath, resource);
+        }
+
+        if (resource == NO_CLASSPATH_RESOURCE) {
             return null;
         }
-        return new URLResource(resUrl, viaContribution);
+
+        URLResource classpathRes = new URLResource(resource.url, viaContribution);
+        classpathRes.classpathPath = resourcePath;
+        classpathRes.classpathResource = resource;
+        classpathRes.exists = true;
+        return classpathRes;
     }
 
     @Override
@@ -244,4 +424,43 @@ public class URLResource implements Resource {
 
         return null;
     }
+
+    /**
+     * A LESS resource resolved through a contributor's classloader, along with its (lazily read) content.
+     */
+    private static class ClasspathResource {
+
+        private final URL url;
+        private volatile byte[] content;
+        private volatile long contentLastModified;
+
+        private ClasspathResource(URL url) {
+            this.url = url;
+        }
+
+        private byte[] getContent() throws IOException {
+            byte[] resourceContent = content;
+            long lastModified = 0;
+
+            if (url.getProtocol().equalsIgnoreCase("file")) {
+                // e.g. an exploded plugin in development. Pick up changes.
+                lastModified = FileUtils.toFile(url).lastModified();
+                if (lastModified != contentLastModified) {
+                    resourceContent = null;
+                }
+            }
+            if (resourceContent == null) {
+                InputStream stream = url.openStream();
+                try {
+                    resourceContent = IOUtils.toByteArray(stream);
+                } finally {
+                    stream.close();
+                }
+                content = resourceContent;
+                contentLastModified = lastModified;
+            }
+
+            return resourceContent;
+        }
+    }
 }
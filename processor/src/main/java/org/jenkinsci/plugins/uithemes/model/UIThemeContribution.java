@@ -26,17 +26,24 @@ package org.jenkinsci.plugins.uithemes.model;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
 import hudson.Util;
-import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.jenkinsci.plugins.uithemes.UIThemesProcessor;
-import org.jenkinsci.plugins.uithemes.less.URLResource;
+import org.jenkinsci.plugins.uithemes.less.GeneratedLESSResource;
+import org.jenkinsci.plugins.uithemes.less.LESSPrecompiler;
+import org.jenkinsci.plugins.uithemes.util.JenkinsUtil;
 import org.jenkinsci.plugins.uithemes.util.TemplateUtil;
 import org.lesscss.Resource;
 
 import javax.xml.namespace.QName;
 import java.io.File;
 import java.io.IOException;
-import java.io.StringWriter;
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 /**
  * UI Theme Contribution.
@@ -54,11 +61,27 @@ import java.util.Map;
  */
 public class UIThemeContribution {
 
+    private static final Logger LOGGER = Logger.getLogger(UIThemeContribution.class.getName());
+    private static final String NO_PRECOMPILED_CSS = new String();
+    private static final LESSTemplate NO_LESS_TEMPLATE = new LESSTemplate(null, null, null);
+    private static final Pattern HEX_COLOR = Pattern.compile("[0-9a-fA-F]{3}|[0-9a-fA-F]{4}|[0-9a-fA-F]{6}|[0-9a-fA-F]{8}");
+    // Whitelists of the CSS custom property values permitted for each theme implementation spec property type.
+    private static final String CSS_IDENTIFIER = "-?[a-zA-Z_][a-zA-Z0-9_-]*";
+    private static final String CSS_NUMBER = "[-+]?(?:[0-9]+|[0-9]*\\.[0-9]+)";
+    private static final Pattern CSS_COLOR_VALUE = Pattern.compile(
+            "#(?:" + HEX_COLOR.pattern() + ")" +
+            "|[a-zA-Z]+" +
+            "|(?:rgba?|hsla?)\\(\\s*" + CSS_NUMBER + "%?(?:\\s*,\\s*" + CSS_NUMBER + "%?){2,3}\\s*\\)");
+    private static final Pattern CSS_LENGTH_VALUE = Pattern.compile(CSS_NUMBER + "(?:%|[a-zA-Z]{1,4})?");
+    private static final Pattern CSS_IDENTIFIER_VALUE = Pattern.compile(CSS_IDENTIFIER + "(?:\\s*,\\s*" + CSS_IDENTIFIER + "|\\s+" + CSS_IDENTIFIER + ")*");
+
     private final String contributionName;
     private final Class<?> contributor;
     private String themeName;
     private String themeImplName;
-    private Template lessTemplate;
+    private volatile LESSTemplate lessTemplate;
+    private volatile String precompiledCSS;
+    private boolean cssCustomProperties;
 
     // TODO: Maybe support Javascript contributions?
 
@@ -76,7 +99,7 @@ public class UIThemeContribution {
         this.themeName = themeName;
         this.themeImplName = themeImplName;
         this.contributor = contributor;
-        this.lessTemplate = createLESSTemplate();
+        // The LESS template is loaded (and parsed) lazily, on first use. See getLESSTemplate().
     }
 
     public String getContributionName() {
@@ -95,26 +118,234 @@ public class UIThemeContribution {
         return themeImplName;
     }
 
-    public Resource createUserLessResource(File userHome, UIThemeImplementation implementation) throws IOException {
-        if (lessTemplate == null) {
-            return null;
+    public boolean isCSSCustomProperties() {
+        return cssCustomProperties;
+    }
+
+    /**
+     * Set CSS custom property mode for this contribution.
+     * <p/>
+     * In this mode, the contribution template is compiled once, with each theme implementation spec property
+     * bound to a CSS custom property (<code>var(--name)</code>) instead of the configured value. A user's
+     * configuration is then applied by declaring the custom property values in a <code>:root</code> block
+     * (see {@link #createCSSCustomPropertiesBlock(UIThemeImplementation, Map)}), so changing the configuration
+     * does not require the template to be recompiled.
+     * <p/>
+     * The template must only use the property values as plain CSS values i.e. not in LESS operations or
+     * functions (e.g. <code>lighten(@color, 10%)</code>), which cannot be applied to a <code>var()</code>.
+     *
+     * @param cssCustomProperties {@code true} to enable CSS custom property mode.
+     * @return {@code this} contribution.
+     */
+    public UIThemeContribution setCSSCustomProperties(boolean cssCustomProperties) {
+        this.cssCustomProperties = cssCustomProperties;
+        return this;
+    }
+
+    /**
+     * Get the name of the CSS custom property bound to a theme implementation spec property.
+     * @param propertyName The spec property name.
+     * @return The CSS custom property name.
+     */
+    public String getCSSCustomPropertyName(String propertyName) {
+        return String.format("--uithemes-%s-%s-%s", themeName, themeImplName, propertyName);
+    }
+
+    /**
+     * Get the configuration used to compile the template in CSS custom property mode i.e. each spec
+     * property mapped to its CSS custom property.
+     *
+     * @param implementation The theme implementation being contributed to.
+     * @return The CSS custom property configuration.
+     */
+    public Map<String, String> getCSSCustomPropertiesConfig(UIThemeImplementation implementation) {
+        Map<String, String> config = new LinkedHashMap<String, String>();
+        for (String propertyName : getDefaultConfig(implementation).keySet()) {
+            // Escaped, so LESS passes it through as is.
+            config.put(propertyName, String.format("~\"var(%s)\"", getCSSCustomPropertyName(propertyName)));
+        }
+        return config;
+    }
+
+    /**
+     * Get the configuration to compile the template with, for the supplied theme implementation configuration.
+     *
+     * @param implementation The theme implementation being contributed to.
+     * @param config The theme implementation configuration (see {@link #getEffectiveConfig(File, UIThemeImplementation)}).
+     * @return The supplied configuration, or the CSS custom property configuration if in CSS custom property mode.
+     */
+    public Map<String, String> getCompileConfig(UIThemeImplementation implementation, Map<String, String> config) {
+        if (cssCustomProperties) {
+            return getCSSCustomPropertiesConfig(implementation);
+        }
+        return config;
+    }
+
+    /**
+     * Create the <code>:root</code> block declaring the CSS custom property values for the supplied
+     * configuration (CSS custom property mode).
+     *
+     * @param implementation The theme implementation being contributed to.
+     * @param config The theme implementation configuration (see {@link #getEffectiveConfig(File, UIThemeImplementation)}).
+     * @return The <code>:root</code> block.
+     */
+    public String createCSSCustomPropertiesBlock(UIThemeImplementation implementation, Map<String, String> config) {
+        UIThemeImplSpec themeImplSpec = (implementation != null ? implementation.getThemeImplSpec() : null);
+        StringBuilder block = new StringBuilder(":root {\n");
+
+        for (String propertyName : getDefaultConfig(implementation).keySet()) {
+            String value = config.get(propertyName);
+            if (value == null) {
+                continue;
+            }
+            UIThemeImplSpecProperty specProperty = (themeImplSpec != null ? themeImplSpec.getProperty(propertyName) : null);
+            UIThemeImplSpecProperty.Type type = (specProperty != null ? specProperty.getType() : UIThemeImplSpecProperty.Type.STRING);
+            String cssValue = toCSSValue(value, type);
+            if (cssValue == null && specProperty != null && specProperty.getDefaultValue() != null) {
+                LOGGER.log(Level.FINE, "Invalid ''{0}'' value for theme implementation property ''{1}''. Using the default value.", new Object[] {type, propertyName});
+                cssValue = toCSSValue(specProperty.getDefaultValue(), type);
+            }
+            if (cssValue == null) {
+                continue;
+            }
+            block.append("  ").append(getCSSCustomPropertyName(propertyName)).append(": ").append(cssValue).append(";\n");
+        }
+
+        return block.append("}\n").toString();
+    }
+
+    /**
+     * Validate a configuration value against the whitelist for the spec property type, so it can only
+     * ever be a single CSS value i.e. it cannot break out of the declaration (or open a comment or string).
+     * <p/>
+     * {@link UIThemeImplSpecProperty.Type#COLOR} values must be a hex color (with or without the leading
+     * <code>#</code>), a named color, or an <code>rgb()/rgba()/hsl()/hsla()</code> color with numeric arguments.
+     * {@link UIThemeImplSpecProperty.Type#NUMBER} values must be a number, with an optional unit (a length).
+     * {@link UIThemeImplSpecProperty.Type#STRING} values must be one or more (space or comma separated) identifiers.
+     *
+     * @return The CSS value, or {@code null} if the value is not valid for the type.
+     */
+    private static String toCSSValue(String value, UIThemeImplSpecProperty.Type type) {
+        value = value.trim();
+        switch (type) {
+            case COLOR:
+                if (HEX_COLOR.matcher(value).matches()) {
+                    return "#" + value;
+                }
+                return (CSS_COLOR_VALUE.matcher(value).matches() ? value : null);
+            case NUMBER:
+                return (CSS_LENGTH_VALUE.matcher(value).matches() ? value : null);
+            default:
+                return (CSS_IDENTIFIER_VALUE.matcher(value).matches() ? value : null);
         }
+    }
 
+    /**
+     * Get the digest (SHA-1) of the contribution LESS template text.
+     * @return The template digest, or {@code null} if the contribution has no template.
+     */
+    public String getTemplateDigest() {
+        return getLESSTemplate().digest;
+    }
+
+    /**
+     * Get the theme implementation configuration that applies to a user for this contribution.
+     * <p/>
+     * This is the user's configuration, falling back to the anonymous user's configuration and then to
+     * the theme implementation spec defaults.
+     *
+     * @param userHome The user home directory.
+     * @param implementation The theme implementation being contributed to.
+     * @return The effective theme implementation configuration.
+     * @throws IOException Error reading the user configuration.
+     */
+    public Map<String, String> getEffectiveConfig(File userHome, UIThemeImplementation implementation) throws IOException {
         Map<String, String> userConfig = getUserThemeImplConfig(userHome);
         if (userConfig.isEmpty() && implementation != null) {
+            userConfig = getDefaultConfig(implementation);
+        }
+        return userConfig;
+    }
+
+    /**
+     * Get the default theme implementation configuration i.e. the theme implementation spec defaults.
+     * @param implementation The theme implementation.
+     * @return The default configuration. An empty map if the implementation has no spec.
+     */
+    public static Map<String, String> getDefaultConfig(UIThemeImplementation implementation) {
+        if (implementation != null) {
             UIThemeImplSpec themeImplSpec = implementation.getThemeImplSpec();
             if (themeImplSpec != null) {
-                userConfig = themeImplSpec.getDefaultConfig();
+                return themeImplSpec.getDefaultConfig();
             }
         }
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Get the build-time precompiled CSS for this contribution (see {@link LESSPrecompiler}), if the supplied
+     * configuration is the configuration the CSS was precompiled with (the build-time default configuration).
+     * <p/>
+     * The precompiled CSS records a digest of the configuration it was compiled with, so it is not used if the
+     * runtime default configuration differs from the build-time default (e.g. a different theme implementation spec).
+     *
+     * @param implementation The theme implementation being contributed to.
+     * @param config The configuration to compile the template with (see {@link #getCompileConfig(UIThemeImplementation, Map)}).
+     * @param rootURL The Jenkins root URL (see {@link JenkinsUtil#getRootURL()}).
+     * @return The precompiled CSS, or {@code null} if the contribution has no precompiled CSS for the
+     * supplied configuration, or it was precompiled from a different template.
+     */
+    public String getPrecompiledCSS(UIThemeImplementation implementation, Map<String, String> config, String rootURL) {
+        if (getTemplateDigest() == null) {
+            return null;
+        }
+
+        String css = precompiledCSS;
+        if (css == null) {
+            css = loadPrecompiledCSS();
+            precompiledCSS = css;
+        }
+        if (css == NO_PRECOMPILED_CSS) {
+            return null;
+        }
+
+        String header = LESSPrecompiler.getHeader(getTemplateDigest(), LESSPrecompiler.getConfigDigest(config));
+        if (!css.startsWith(header)) {
+            // Precompiled with a different configuration.
+            return null;
+        }
+
+        return css.substring(header.length()).replace(LESSPrecompiler.ROOT_URL_TOKEN, rootURL);
+    }
+
+    public Resource createUserLessResource(File userHome, UIThemeImplementation implementation) throws IOException {
+        if (getLESSTemplate().template == null) {
+            return null;
+        }
+        return createLessResource(userHome, getEffectiveConfig(userHome, implementation));
+    }
+
+    /**
+     * Create the user LESS resource by applying the supplied theme implementation configuration to the
+     * contribution LESS template.
+     *
+     * @param userHome The user home directory.
+     * @param userConfig The theme implementation configuration (see {@link #getEffectiveConfig(File, UIThemeImplementation)}).
+     * @return The user LESS resource, or {@code null} if the contribution has no template.
+     * @throws IOException Error applying the configuration to the template.
+     */
+    public Resource createLessResource(File userHome, Map<String, String> userConfig) throws IOException {
+        LESSTemplate lessTemplate = getLESSTemplate();
+        if (lessTemplate.template == null) {
+            return null;
+        }
 
+        // Named after the user theme LESS file, but generated in memory (no disk write/read).
         File lessFile = UIThemesProcessor.getUserThemeImplLESSFile(themeName, themeImplName, userHome);
-        StringWriter writer = new StringWriter();
 
         try {
-            lessTemplate.process(userConfig, writer);
-            FileUtils.write(lessFile, writer.toString(), "UTF-8");
-            return new URLResource(lessFile.toURI().toURL(), this);
+            byte[] less = TemplateUtil.renderToBytes(lessTemplate.template, userConfig);
+            return new GeneratedLESSResource(lessFile.getAbsolutePath(), less, getTemplatePath(), lessTemplate.url, this);
         } catch (TemplateException e) {
             throw new IOException(
                     String.format("Error applying user theme impl configuration to LESS resource template. UserHome '%s', ThemeImpl '%s'.\n" +
@@ -134,8 +365,6 @@ public class UIThemeContribution {
                             (userConfig.isEmpty() ? "{} !!EMPTY!!" : userConfig.toString())
                     ),
                     e);
-        } finally {
-            writer.close();
         }
     }
 
@@ -152,9 +381,49 @@ public class UIThemeContribution {
         return UIThemesProcessor.getUserThemeImplConfig(themeName, themeImplName, userHome);
     }
 
-    private Template createLESSTemplate() {
-        String templatePath = getTemplatePath();
-        return TemplateUtil.createLESSTemplate(getQName().toString(), templatePath, contributor);
+    private String loadPrecompiledCSS() {
+        URL cssURL = contributor.getResource(LESSPrecompiler.getPrecompiledCSSPath(this));
+        if (cssURL == null) {
+            return NO_PRECOMPILED_CSS;
+        }
+
+        try {
+            String css = IOUtils.toString(cssURL, "UTF-8");
+            if (css.startsWith(LESSPrecompiler.getHeaderPrefix(getTemplateDigest()))) {
+                // Includes the header. The configuration digest in it is checked on use.
+                return css;
+            }
+            LOGGER.log(Level.FINE, "Ignoring out of date precompiled CSS for theme contribution ''{0}''.", getQName());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, String.format("Error reading precompiled CSS for theme contribution '%s'.", getQName()), e);
+        }
+        return NO_PRECOMPILED_CSS;
+    }
+
+    /**
+     * Get the contribution LESS template, loading it on first use.
+     * <p/>
+     * Rebuilding the theme set creates contributions for every theme implementation, most of which will never be
+     * used, so we only load the template when it is actually needed.
+     */
+    private LESSTemplate getLESSTemplate() {
+        LESSTemplate template = lessTemplate;
+        if (template == null) {
+            synchronized (this) {
+                template = lessTemplate;
+                if (template == null) {
+                    // Shared (cached) across contribution instances i.e. not reloaded every time the theme set is rebuilt.
+                    Template freemarkerTemplate = TemplateUtil.getLESSTemplate(getTemplatePath(), contributor);
+                    if (freemarkerTemplate != null) {
+                        template = new LESSTemplate(freemarkerTemplate, TemplateUtil.getTemplateURL(freemarkerTemplate), TemplateUtil.getTemplateDigest(freemarkerTemplate));
+                    } else {
+                        template = NO_LESS_TEMPLATE;
+                    }
+                    lessTemplate = template;
+                }
+            }
+        }
+        return template;
     }
 
     private String getTemplatePath() {
@@ -167,4 +436,17 @@ public class UIThemeContribution {
                     "it contains characters that cannot be used in a file path.", string));
         }
     }
+
+    private static class LESSTemplate {
+
+        private final Template template;
+        private final URL url;
+        private final String digest;
+
+        private LESSTemplate(Template template, URL url, String digest) {
+            this.template = template;
+            this.url = url;
+            this.digest = digest;
+        }
+    }
 }
@@ -0,0 +1,83 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins UI Themes plugin contributors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.uithemes.model;
+
+/**
+ * A failed compilation of a {@link UIThemeContribution}.
+ * <p/>
+ * Failures are remembered for a period of time, so a broken contribution template is not recompiled
+ * (for every user) each time the theme CSS is regenerated.
+ */
+public class UIThemeContributionFailure {
+
+    private String contribution;
+    private String contributor;
+    private String templateDigest;
+    private String configDigest;
+    private String message;
+    private long failedAt;
+    private long expiresAt;
+
+    public UIThemeContributionFailure(UIThemeContribution contribution, String configDigest, String message, long ttl) {
+        this.contribution = contribution.getQName().toString();
+        this.contributor = contribution.getContributor().getName();
+        this.templateDigest = contribution.getTemplateDigest();
+        this.configDigest = configDigest;
+        this.message = message;
+        this.failedAt = System.currentTimeMillis();
+        this.expiresAt = failedAt + ttl;
+    }
+
+    public String getContribution() {
+        return contribution;
+    }
+
+    public String getContributor() {
+        return contributor;
+    }
+
+    public String getTemplateDigest() {
+        return templateDigest;
+    }
+
+    public String getConfigDigest() {
+        return configDigest;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public long getFailedAt() {
+        return failedAt;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= expiresAt;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins UI Themes plugin contributors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.uithemes.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Simple thread-safe LRU cache, bounded by the total "weight" (typically the size in bytes)
+ * of the cached values, as opposed to the number of entries.
+ */
+public abstract class BoundedCache<K, V> {
+
+    private final long maxWeight;
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<K, V>(16, 0.75f, true); // access order i.e. LRU
+    private long weight = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    public BoundedCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Get the weight of a value.
+     * @param value The value.
+     * @return The value weight.
+     */
+    protected abstract long weigh(V value);
+
+    public synchronized V get(K key) {
+        V value = entries.get(key);
+        if (value != null) {
+            hitCount++;
+        } else {
+            missCount++;
+        }
+        return value;
+    }
+
+    public synchronized V put(K key, V value) {
+        V oldValue = remove(key);
+        long valueWeight = weigh(value);
+
+        // Don't cache values that would not fit, even in an empty cache.
+        if (valueWeight <= maxWeight) {
+            entries.put(key, value);
+            weight += valueWeight;
+            evict();
+        }
+
+        return oldValue;
+    }
+
+    public synchronized V remove(K key) {
+        V value = entries.remove(key);
+        if (value != null) {
+            weight -= weigh(value);
+        }
+        return value;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<K, V>> entryIterator = entries.entrySet().iterator();
+        while (weight > maxWeight && entryIterator.hasNext()) {
+            Map.Entry<K, V> eldest = entryIterator.next();
+            weight -= weigh(eldest.getValue());
+            entryIterator.remove();
+        }
+    }
+}
@@ -25,17 +25,27 @@ package org.jenkinsci.plugins.uithemes.util;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
-import hudson.Util;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import org.apache.commons.io.FileUtils;
 import org.kohsuke.stapler.StaplerRequest;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.StringWriter;
+import java.io.OutputStream;
 import java.nio.charset.Charset;
 
 /**
+ * JSON read/write utilities.
+ * <p/>
+ * Readers and writers are created from the one shared {@link ObjectMapper} on each use. That is cheap, since the
+ * mapper caches the (de)serializers it builds for each type. No per-type cache is held here, because a static map
+ * keyed by {@link Class} would pin the classes (and so the class loaders) of uninstalled plugins. JSON is
+ * parsed from and written to streams directly, without intermediate {@link String} copies.
+ *
  * @author <a href="mailto:tom.fennelly@gmail.com">tom.fennelly@gmail.com</a>
  */
 public class JSONReadWrite {
@@ -45,47 +55,86 @@ public class JSONReadWrite {
     public static final ObjectMapper jsonMapper = new ObjectMapper();
 
     public static <T> T fromString(String string, Class<T> to) throws IOException {
-        ObjectReader reader = jsonMapper.reader(to);
-        return reader.readValue(string);
+        return getReader(to).readValue(string);
     }
 
     public static <T> T fromBytes(byte[] bytes, Charset encoding, Class<T> to) throws IOException {
-        return fromString(new String(bytes, encoding), to);
+        if (UTF8.equals(encoding)) {
+            return getReader(to).readValue(bytes);
+        }
+        return fromStream(new ByteArrayInputStream(bytes), encoding, to);
     }
 
     public static <T> T fromUTF8File(File file, Class<T> to) throws IOException {
         if (!file.exists()) {
             return null;
         }
-        String string = FileUtils.readFileToString(file, UTF8);
-        return fromString(string, to);
+        return fromStream(new FileInputStream(file), UTF8, to);
     }
 
     public static <T> T fromRequest(StaplerRequest req, Class<T> to) throws IOException {
         String contentEncoding = req.getCharacterEncoding();
-        StringWriter writer = new StringWriter();
-
-        if (contentEncoding == null) {
-            contentEncoding = "UTF-8";
-        }
+        Charset encoding = (contentEncoding != null ? Charset.forName(contentEncoding) : UTF8);
 
-        Util.copyStreamAndClose(new InputStreamReader(req.getInputStream(), contentEncoding), writer);
+        return fromStream(req.getInputStream(), encoding, to);
+    }
 
-        return fromString(writer.toString(), to);
+    /**
+     * Read JSON from a stream. The stream is closed.
+     *
+     * @param stream The JSON stream.
+     * @param encoding The stream character encoding.
+     * @param to The type to read.
+     * @return The object read from the stream.
+     * @throws IOException Error reading the JSON.
+     */
+    public static <T> T fromStream(InputStream stream, Charset encoding, Class<T> to) throws IOException {
+        try {
+            if (UTF8.equals(encoding)) {
+                // Let Jackson decode the bytes itself.
+                return getReader(to).readValue(stream);
+            }
+            return getReader(to).readValue(new InputStreamReader(stream, encoding));
+        } finally {
+            stream.close();
+        }
     }
 
     public static String toString(Object object) throws IOException {
-        StringWriter stringWriter = new StringWriter();
-        jsonMapper.writeValue(stringWriter, object);
-        return stringWriter.toString();
+        return getWriter(object).writeValueAsString(object);
     }
 
     public static byte[] toUTF8Bytes(Object object) throws IOException {
-        return toString(object).getBytes(UTF8);
+        return getWriter(object).writeValueAsBytes(object);
     }
 
     public static void toUTF8File(Object object, File file) throws IOException {
-        String string = toString(object);
-        FileUtils.write(file, string, UTF8);
+        toUTF8Stream(object, FileUtils.openOutputStream(file));
+    }
+
+    /**
+     * Write an object as UTF-8 encoded JSON to a stream. The stream is closed.
+     *
+     * @param object The object to write.
+     * @param stream The stream to write to.
+     * @throws IOException Error writing the JSON.
+     */
+    public static void toUTF8Stream(Object object, OutputStream stream) throws IOException {
+        try {
+            getWriter(object).writeValue(stream, object);
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static ObjectReader getReader(Class<?> type) {
+        return jsonMapper.readerFor(type);
+    }
+
+    private static ObjectWriter getWriter(Object object) {
+        if (object == null) {
+            return jsonMapper.writer();
+        }
+        return jsonMapper.writerFor(object.getClass());
     }
 }
@@ -28,6 +28,7 @@ import freemarker.template.TemplateException;
 import hudson.model.User;
 import jenkins.model.IdStrategy;
 import jenkins.model.Jenkins;
+import jenkins.model.JenkinsLocationConfiguration;
 import org.apache.commons.io.FileUtils;
 import org.jenkinsci.plugins.uithemes.UIThemesProcessor;
 import org.junit.Assert;
@@ -104,15 +105,43 @@ public class JenkinsUtil {
         }
     }
 
-    public static void createJenkinsEnvVariablesLESSFile() throws IOException {
+    public static Properties getJenkinsEnvVariables() {
         Properties variables = new Properties();
+        variables.setProperty("rootURL", getRootURL());
+        return variables;
+    }
+
+    /**
+     * Get the Jenkins root URL used in the generated theme CSS.
+     * <p/>
+     * This is the configured Jenkins URL or, if none is configured, the servlet context path. Unlike
+     * {@link Jenkins#getRootUrl()}, it is never derived from the current request, so it is the same on request
+     * threads and background threads (and never {@code null}).
+     *
+     * @return The Jenkins root URL.
+     */
+    public static String getRootURL() {
         Jenkins instance = Jenkins.getInstance();
-        if (instance != null) {
-            variables.setProperty("rootURL", instance.getRootUrl());
-        } else {
-            variables.setProperty("rootURL", "/jenkins");
+        if (instance == null) {
+            return "/jenkins";
+        }
+
+        JenkinsLocationConfiguration locationConfiguration = JenkinsLocationConfiguration.get();
+        String rootURL = (locationConfiguration != null ? locationConfiguration.getUrl() : null);
+        if (rootURL == null) {
+            rootURL = (instance.servletContext != null ? instance.servletContext.getContextPath() : "");
+        }
+        if (rootURL.endsWith("/")) {
+            rootURL = rootURL.substring(0, rootURL.length() - 1);
         }
+        return rootURL;
+    }
+
+    public static void createJenkinsEnvVariablesLESSFile() throws IOException {
+        createJenkinsEnvVariablesLESSFile(getJenkinsEnvVariables());
+    }
 
+    public static void createJenkinsEnvVariablesLESSFile(Properties variables) throws IOException {
         synchronized (JENKINS_USER_HOME) {
             if (currentJenkinsEnvVariables == null || !variables.equals(currentJenkinsEnvVariables)) {
                 // Create/update the env variables.
@@ -23,42 +23,151 @@
  */
 package org.jenkinsci.plugins.uithemes.util;
 
+import freemarker.cache.StrongCacheStorage;
+import freemarker.cache.TemplateLoader;
 import freemarker.template.Configuration;
 import freemarker.template.Template;
+import freemarker.template.TemplateException;
 import hudson.Util;
 import org.jenkinsci.plugins.uithemes.UIThemesProcessor;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
+ * LESS template utilities.
+ * <p/>
+ * All LESS templates are created through a single shared FreeMarker {@link Configuration}. Classpath templates
+ * are loaded through its template cache, so each template is located, read and parsed once, no matter how many
+ * times the theme set is rebuilt. Templates are loaded via the {@link Class} (i.e. plugin classloader) of the
+ * contributor that owns them.
+ *
  * @author <a href="mailto:tom.fennelly@gmail.com">tom.fennelly@gmail.com</a>
  */
 public class TemplateUtil {
 
     private static final Logger LOGGER = Logger.getLogger(UIThemesProcessor.class.getName());
 
+    private static final Map<Class<?>, String> loaderClassIds = new WeakHashMap<Class<?>, String>();
+    private static final AtomicInteger loaderClassCount = new AtomicInteger();
+    private static final Map<String, WeakReference<Class<?>>> loaderClasses = new ConcurrentHashMap<String, WeakReference<Class<?>>>();
+    private static final Map<String, TemplateInfo> templateInfos = new ConcurrentHashMap<String, TemplateInfo>();
+    private static final Configuration configuration = createConfiguration();
+
+    private static final int DEFAULT_RENDER_BUFFER_SIZE = 8 * 1024;
+
     public static Template createJenkinsEnvVariablesTemplate() {
-        return createLESSTemplate("Jenkins-Environment-Variables", "/jenkins-themes/core/jenkins/env-template.less", TemplateUtil.class);
+        return getLESSTemplate("/jenkins-themes/core/jenkins/env-template.less", TemplateUtil.class);
+    }
+
+    /**
+     * Get a LESS template from the classpath.
+     *
+     * @param templatePath The classpath template path.
+     * @param loaderClass The class through which the template is to be loaded.
+     * @return The template, or {@code null} if no such template exists.
+     */
+    public static Template getLESSTemplate(String templatePath, Class<?> loaderClass) {
+        String templateName = getLoaderClassId(loaderClass) + (templatePath.startsWith("/") ? "" : "/") + templatePath;
+
+        try {
+            return configuration.getTemplate(templateName);
+        } catch (FileNotFoundException e) {
+            LOGGER.log(Level.INFO, "No UI Theme Contribution LESS template found at ''{0}'' on the classpath.", templatePath);
+            return null;
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Exception creating FreeMarker Template instance for template '%s'.", templatePath), e);
+        }
+    }
+
+    /**
+     * Get the SHA1 digest of a classpath LESS template's text.
+     *
+     * @param template The template (see {@link #getLESSTemplate(String, Class)}).
+     * @return The template digest, or {@code null} if the template was not loaded from the classpath.
+     */
+    public static String getTemplateDigest(Template template) {
+        TemplateInfo templateInfo = templateInfos.get(template.getName());
+        return (templateInfo != null ? templateInfo.digest : null);
+    }
+
+    /**
+     * Get the URL of a classpath LESS template.
+     *
+     * @param template The template (see {@link #getLESSTemplate(String, Class)}).
+     * @return The template URL, or {@code null} if the template was not loaded from the classpath.
+     */
+    public static URL getTemplateURL(Template template) {
+        TemplateInfo templateInfo = templateInfos.get(template.getName());
+        return (templateInfo != null ? templateInfo.url : null);
+    }
+
+    /**
+     * Clear the classpath template cache.
+     * <p/>
+     * Needs to be called whenever the set of contributors changes (e.g. plugin install/reload). Also drops the
+     * loader ids of contributor classes that have since been garbage collected (e.g. an uninstalled plugin).
+     */
+    public static void clearCache() {
+        configuration.clearTemplateCache();
+        templateInfos.clear();
+        synchronized (loaderClassIds) {
+            pruneLoaderClasses();
+        }
     }
 
-    public static Template createLESSTemplate(String templateName, String templatePath, Class<?> loaderClass) {
-        String templateText = loadLESSTemplateText(templatePath, loaderClass);
+    /**
+     * Render a template to UTF-8 bytes.
+     * <p/>
+     * Renders straight to bytes, through a buffer sized from the previous rendering of the same (classpath)
+     * template, avoiding the intermediate {@link StringWriter} buffer growth and {@link String} copies.
+     *
+     * @param template The template.
+     * @param dataModel The template data model.
+     * @return The rendered template bytes (UTF-8).
+     * @throws IOException Error writing the template output.
+     * @throws TemplateException Error rendering the template.
+     */
+    public static byte[] renderToBytes(Template template, Object dataModel) throws IOException, TemplateException {
+        TemplateInfo templateInfo = templateInfos.get(template.getName());
+        int renderedSize = (templateInfo != null ? templateInfo.renderedSize : 0);
+        ByteArrayOutputStream renderBuffer = new ByteArrayOutputStream(renderedSize > 0 ? renderedSize : DEFAULT_RENDER_BUFFER_SIZE);
+        Writer writer = new OutputStreamWriter(renderBuffer, Charset.forName("UTF-8"));
 
+        template.process(dataModel, writer);
+        writer.flush();
+        if (templateInfo != null) {
+            templateInfo.renderedSize = renderBuffer.size();
+        }
+
+        return renderBuffer.toByteArray();
+    }
+
+    public static Template createLESSTemplate(String templateName, String templateText) {
         if (templateText != null) {
             Reader templateReader = new StringReader(templateText);
 
             try {
                 try {
-                    Configuration config = new Configuration(Configuration.DEFAULT_INCOMPATIBLE_IMPROVEMENTS);
-                    config.setNumberFormat("#.####");
-                    return new Template(templateName, templateReader, config);
+                    return new Template(templateName, templateReader, configuration);
                 } finally {
                     templateReader.close();
                 }
@@ -70,15 +179,12 @@ public class TemplateUtil {
         }
     }
 
-    private static String loadLESSTemplateText(String templatePath, Class<?> loaderClass) {
+    public static String loadLESSTemplateText(String templatePath, Class<?> loaderClass) {
         InputStream templateResStream = loaderClass.getResourceAsStream(templatePath);
 
         if (templateResStream != null) {
             try {
-                Reader templateResStreamReader = new InputStreamReader(templateResStream, "UTF-8");
-                StringWriter writer = new StringWriter();
-                Util.copyStreamAndClose(templateResStreamReader, writer);
-                return writer.toString();
+                return readTemplateText(templateResStream);
             } catch (IOException e) {
                 LOGGER.log(Level.WARNING, String.format("Error reading LESS resource template file '%s'.", templatePath), e);
             }
@@ -89,4 +195,132 @@ public class TemplateUtil {
 
         return null;
     }
+
+    private static String readTemplateText(InputStream templateResStream) throws IOException {
+        Reader templateResStreamReader = new InputStreamReader(templateResStream, "UTF-8");
+        StringWriter writer = new StringWriter();
+        Util.copyStreamAndClose(templateResStreamReader, writer);
+        return writer.toString();
+    }
+
+    private static Configuration createConfiguration() {
+        Configuration config = new Configuration(Configuration.DEFAULT_INCOMPATIBLE_IMPROVEMENTS);
+        config.setNumberFormat("#.####");
+        config.setDefaultEncoding("UTF-8");
+        config.setTemplateLoader(new ContributorTemplateLoader());
+        config.setLocalizedLookup(false);
+        // Classpath templates only change with the plugin, at which point the cache is cleared (see clearCache).
+        config.setCacheStorage(new StrongCacheStorage());
+        config.setTemplateUpdateDelay(Integer.MAX_VALUE);
+        return config;
+    }
+
+    /**
+     * Get the template name prefix identifying the class through which a template is to be loaded. Each loader
+     * class (e.g. a reloaded plugin's contributor class) gets its own ID, so its templates never clash with those
+     * of other loader classes in the template cache.
+     */
+    private static String getLoaderClassId(Class<?> loaderClass) {
+        synchronized (loaderClassIds) {
+            String id = loaderClassIds.get(loaderClass);
+            if (id == null) {
+                // A new contributor class usually means a plugin install/reload, so a good time to drop the old ones.
+                pruneLoaderClasses();
+                id = "loader-" + loaderClassCount.incrementAndGet();
+                loaderClassIds.put(loaderClass, id);
+                loaderClasses.put(id, new WeakReference<Class<?>>(loaderClass));
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Remove the loader ids of garbage collected contributor classes. Must be called holding the
+     * {@link #loaderClassIds} lock.
+     */
+    private static void pruneLoaderClasses() {
+        Iterator<Map.Entry<String, WeakReference<Class<?>>>> loaderClassEntries = loaderClasses.entrySet().iterator();
+        while (loaderClassEntries.hasNext()) {
+            if (loaderClassEntries.next().getValue().get() == null) {
+                loaderClassEntries.remove();
+            }
+        }
+    }
+
+    private static class TemplateInfo {
+
+        private final URL url;
+        private final String digest;
+        private volatile int renderedSize;
+
+        private TemplateInfo(URL url, String digest) {
+            this.url = url;
+            this.digest = digest;
+        }
+    }
+
+    /**
+     * Loads "<loader-class-id>/<classpath-path>" templates through the loader class.
+     */
+    private static class ContributorTemplateLoader implements TemplateLoader {
+
+        @Override
+        public Object findTemplateSource(String name) throws IOException {
+            int separatorIdx = name.indexOf('/');
+            if (separatorIdx == -1) {
+                return null;
+            }
+
+            WeakReference<Class<?>> loaderClassRef = loaderClasses.get(name.substring(0, separatorIdx));
+            Class<?> loaderClass = (loaderClassRef != null ? loaderClassRef.get() : null);
+            if (loaderClass == null) {
+                return null;
+            }
+
+            URL url = loaderClass.getResource(name.substring(separatorIdx));
+            if (url == null) {
+                return null;
+            }
+            return new TemplateSource(name, url);
+        }
+
+        @Override
+        public long getLastModified(Object templateSource) {
+            return -1;
+        }
+
+        @Override
+        public Reader getReader(Object templateSource, String encoding) throws IOException {
+            TemplateSource source = (TemplateSource) templateSource;
+            String templateText = readTemplateText(source.url.openStream());
+
+            templateInfos.put(source.name, new TemplateInfo(source.url, DigestUtil.sha1(templateText)));
+            return new StringReader(templateText);
+        }
+
+        @Override
+        public void closeTemplateSource(Object templateSource) {
+        }
+    }
+
+    private static class TemplateSource {
+
+        private final String name;
+        private final URL url;
+
+        private TemplateSource(String name, URL url) {
+            this.name = name;
+            this.url = url;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof TemplateSource && ((TemplateSource) o).url.toString().equals(url.toString()));
+        }
+
+        @Override
+        public int hashCode() {
+            return url.toString().hashCode();
+        }
+    }
 }
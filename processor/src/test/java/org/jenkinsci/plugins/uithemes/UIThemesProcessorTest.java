@@ -25,9 +25,15 @@ package org.jenkinsci.plugins.uithemes;
 
 import hudson.model.User;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.filefilter.SuffixFileFilter;
+import org.jenkinsci.plugins.uithemes.css.ThemesCSS;
+import org.jenkinsci.plugins.uithemes.css.ThemesCSSStore;
 import org.jenkinsci.plugins.uithemes.model.UIThemeContribution;
+import org.jenkinsci.plugins.uithemes.model.UIThemeContributionFailure;
 import org.jenkinsci.plugins.uithemes.model.UIThemeSet;
 import org.jenkinsci.plugins.uithemes.model.UserUIThemeConfiguration;
+import org.jenkinsci.plugins.uithemes.util.DigestUtil;
 import org.jenkinsci.plugins.uithemes.util.JenkinsUtil;
 import org.junit.Assert;
 import org.junit.Before;
@@ -35,7 +41,10 @@ import org.junit.Test;
 import org.mockito.Mockito;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
 
 /**
  * @author <a href="mailto:tom.fennelly@gmail.com">tom.fennelly@gmail.com</a>
@@ -90,7 +99,7 @@ public class UIThemesProcessorTest {
 
         File cssFile = processor.getUserThemesCSS(user);
 
-        Assert.assertEquals("./target/jenkins-home/users/anonymous/themes/themes.css", cssFile.getPath());
+        Assert.assertEquals("./target/jenkins-home/users/themes/css", cssFile.getParent());
         assertDefaultStylesOnly(cssFile);
     }
 
@@ -101,10 +110,34 @@ public class UIThemesProcessorTest {
         User user = createUser("tfennelly");
         File cssFile = processor.getUserThemesCSS(user);
 
-        Assert.assertEquals("./target/jenkins-home/users/tfennelly/themes/themes.css", cssFile.getPath());
+        Assert.assertEquals("./target/jenkins-home/users/themes/css", cssFile.getParent());
         assertDefaultStylesOnly(cssFile);
     }
 
+    @Test
+    public void test_generate_users_share_css() throws IOException {
+        addTestThemes(processor);
+
+        User user1 = createUser("user1");
+        User user2 = createUser("user2");
+        User user3 = createUser("user3");
+
+        // configure a theme for user3 only
+        UserUIThemeConfiguration themeConfiguration = new UserUIThemeConfiguration();
+        themeConfiguration.addSelection(icon_font_awesome.contribution.getThemeName(), icon_font_awesome.contribution.getThemeImplName());
+        UserUIThemeConfiguration.toUserHome(user3, themeConfiguration);
+
+        File user1CSS = processor.getUserThemesCSS(user1);
+        File user2CSS = processor.getUserThemesCSS(user2);
+        File user3CSS = processor.getUserThemesCSS(user3);
+
+        // user1 and user2 have the same (default) configuration, so should share the same CSS.
+        Assert.assertEquals(user1CSS, user2CSS);
+        Assert.assertNotEquals(user1CSS, user3CSS);
+        Assert.assertSame(processor.getThemesCSS(user1), processor.getThemesCSS(user2));
+        Assert.assertEquals(2, processor.getThemesCSSStore().getStoreDir().list(new SuffixFileFilter(".css")).length);
+    }
+
     @Test
     public void test_generate_user_theme_configured() throws IOException {
         addTestThemes(processor);
@@ -119,7 +152,7 @@ public class UIThemesProcessorTest {
 
         File cssFile = processor.getUserThemesCSS(user);
 
-        Assert.assertEquals("./target/jenkins-home/users/tfennelly/themes/themes.css", cssFile.getPath());
+        Assert.assertEquals("./target/jenkins-home/users/themes/css", cssFile.getParent());
 
         // Check that the default contributions have been replaced with he above selections
         // in the generated CSS
@@ -173,6 +206,262 @@ public class UIThemesProcessorTest {
         Assert.assertNotEquals(user3_1, user3_3.lastModified());
     }
 
+    @Test
+    public void test_generate_etag_and_gzip() throws IOException {
+        addTestThemes(processor);
+
+        User user = createUser("tfennelly");
+        File cssFile = processor.getUserThemesCSS(user);
+        String cssKey = cssFile.getName().substring(0, cssFile.getName().length() - ".css".length());
+        ThemesCSSStore cssStore = processor.getThemesCSSStore();
+
+        // The CSS file should be named after the user's theme configuration key.
+        Assert.assertTrue(ThemesCSSStore.isValidKey(cssKey));
+        Assert.assertTrue(UIThemesProcessor.getUserThemesCSSRefFile(JenkinsUtil.getJenkinsUserHome(user)).exists());
+
+        // The ETag should be generated and stored alongside the CSS file.
+        File etagFile = cssStore.getETagFile(cssKey);
+        Assert.assertTrue(etagFile.exists());
+        Assert.assertEquals(DigestUtil.sha1(FileUtils.readFileToByteArray(cssFile)), FileUtils.readFileToString(etagFile, "UTF-8"));
+
+        // As should the gzipped CSS.
+        File gzipFile = cssStore.getGzipFile(cssKey);
+        InputStream gzipStream = new GZIPInputStream(new FileInputStream(gzipFile));
+        try {
+            Assert.assertArrayEquals(FileUtils.readFileToByteArray(cssFile), IOUtils.toByteArray(gzipStream));
+        } finally {
+            gzipStream.close();
+        }
+
+        // And reloaded from the store.
+        ThemesCSS css = cssStore.load(cssKey);
+        Assert.assertArrayEquals(FileUtils.readFileToByteArray(cssFile), css.getBytes());
+        Assert.assertEquals(processor.getUserThemesCSSFingerprint(user), css.getETag());
+
+        // And deleted along with it.
+        processor.deleteAllUserThemes();
+        Assert.assertFalse(cssFile.exists());
+        Assert.assertFalse(gzipFile.exists());
+        Assert.assertFalse(etagFile.exists());
+    }
+
+    @Test
+    public void test_fingerprint() throws IOException {
+        addTestThemes(processor);
+
+        User user = createUser("tfennelly");
+
+        // Getting the fingerprint should generate the CSS.
+        String fingerprint = processor.getUserThemesCSSFingerprint(user);
+        Assert.assertNotNull(fingerprint);
+        Assert.assertEquals(DigestUtil.sha1(FileUtils.readFileToByteArray(processor.getUserThemesCSS(user))), fingerprint);
+        Assert.assertEquals(fingerprint, processor.getUserThemesCSSFingerprint(user));
+        Assert.assertEquals(fingerprint, processor.getAvailableUserThemesCSSFingerprint(user));
+
+        // Regenerating the same configuration produces the same fingerprint.
+        processor.deleteAllUserThemes();
+        Assert.assertEquals(fingerprint, processor.getUserThemesCSSFingerprint(user));
+    }
+
+    @Test
+    public void test_available_fingerprint() throws IOException {
+        addTestThemes(processor);
+
+        User user = createUser("tfennelly");
+
+        // Getting the available fingerprint should not generate the CSS (inline).
+        Assert.assertNull(processor.getAvailableUserThemesCSSFingerprint(user));
+        Assert.assertNotNull(processor.getUserThemesCSSFingerprint(user));
+        Assert.assertEquals(processor.getUserThemesCSSFingerprint(user), processor.getAvailableUserThemesCSSFingerprint(user));
+    }
+
+    @Test
+    public void test_css_cache() throws IOException {
+        addTestThemes(processor);
+
+        User user = createUser("tfennelly");
+        File userHome = JenkinsUtil.getJenkinsUserHome(user);
+
+        ThemesCSS css = processor.getThemesCSS(user);
+        Assert.assertArrayEquals(FileUtils.readFileToByteArray(processor.getUserThemesCSS(user)), css.getBytes());
+
+        // Should come from the cache
+        Assert.assertSame(css, processor.getThemesCSS(user));
+
+        // Deleting the user theme CSS reference should not regenerate the CSS if the user's
+        // configuration has not changed.
+        processor.deleteUserThemesCSS(userHome);
+        Assert.assertSame(css, processor.getThemesCSS(user));
+
+        // Changing the user's configuration should.
+        UserUIThemeConfiguration themeConfiguration = new UserUIThemeConfiguration();
+        themeConfiguration.addSelection(icon_font_awesome.contribution.getThemeName(), icon_font_awesome.contribution.getThemeImplName());
+        UserUIThemeConfiguration.toUserHome(user, themeConfiguration);
+        processor.deleteUserThemesCSS(userHome);
+        ThemesCSS reconfiguredCss = processor.getThemesCSS(user);
+        Assert.assertNotSame(css, reconfiguredCss);
+        Assert.assertSame(reconfiguredCss, processor.getThemesCSS(user));
+
+        // As should deleting all user themes
+        processor.deleteAllUserThemes();
+        Assert.assertNotSame(reconfiguredCss, processor.getThemesCSS(user));
+    }
+
+    @Test
+    public void test_concurrent_generation() throws Exception {
+        addTestThemes(processor);
+
+        final ThemesCSS[] results = new ThemesCSS[8];
+        final Throwable[] errors = new Throwable[results.length];
+        Thread[] threads = new Thread[results.length];
+
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            final User user = createUser("user" + i);
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        results[index] = processor.getThemesCSS(user);
+                    } catch (Throwable t) {
+                        errors[index] = t;
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // All users have the same (default) configuration, so should all get the same CSS instance
+        // i.e. it was generated once.
+        for (int i = 0; i < results.length; i++) {
+            Assert.assertNull(errors[i]);
+            Assert.assertSame(results[0], results[i]);
+        }
+    }
+
+    @Test
+    public void test_stale_while_revalidate() throws Exception {
+        addTestThemes(processor);
+        processor.setStaleWhileRevalidate(true);
+
+        User user = createUser("tfennelly");
+        File userHome = JenkinsUtil.getJenkinsUserHome(user);
+
+        // Nothing to serve yet, so the first request must generate.
+        ThemesCSS css = processor.getThemesCSS(user);
+        Assert.assertSame(css, processor.getThemesCSS(user));
+
+        // Reconfigure the user. The previous CSS should be served while the new CSS is generated.
+        UserUIThemeConfiguration themeConfiguration = new UserUIThemeConfiguration();
+        themeConfiguration.addSelection(icon_font_awesome.contribution.getThemeName(), icon_font_awesome.contribution.getThemeImplName());
+        UserUIThemeConfiguration.toUserHome(user, themeConfiguration);
+        processor.deleteUserThemesCSS(userHome);
+        Assert.assertSame(css, processor.getThemesCSS(user));
+
+        // And the new CSS picked up once generated.
+        ThemesCSS regeneratedCss = css;
+        for (int i = 0; i < 100 && regeneratedCss == css; i++) {
+            Thread.sleep(100);
+            regeneratedCss = processor.getThemesCSS(user);
+        }
+        Assert.assertNotSame(css, regeneratedCss);
+        Assert.assertTrue(new String(regeneratedCss.getBytes(), "UTF-8").contains(icon_font_awesome.contribution.getQName().toString()));
+
+        // A new user should be served the anonymous CSS while theirs is generated.
+        ThemesCSS anonymousCss = processor.getThemesCSS(null);
+        User newUser = createUser("newuser");
+        UserUIThemeConfiguration newUserThemeConfiguration = new UserUIThemeConfiguration();
+        newUserThemeConfiguration.addSelection(status_balls_css3.contribution.getThemeName(), status_balls_css3.contribution.getThemeImplName());
+        UserUIThemeConfiguration.toUserHome(newUser, newUserThemeConfiguration);
+        Assert.assertSame(anonymousCss, processor.getThemesCSS(newUser));
+    }
+
+    @Test
+    public void test_contribution_failures() throws IOException {
+        final UIThemeContribution broken = new UIThemeContribution("broken", "themeB", "themeBImpl", MockUIThemeContributor.class);
+        processor.addContributor(new UIThemeContributor() {
+            @Override
+            public void contribute(UIThemeSet themeSet) {
+                themeSet.registerTheme("themeB", "Theme B");
+                themeSet.registerThemeImpl("themeB", "themeBImpl", "Theme B Impl");
+                themeSet.contribute(broken);
+            }
+        });
+
+        User user = createUser("tfennelly");
+        ThemesCSS css = processor.getThemesCSS(user);
+        String styles = new String(css.getBytes(), "UTF-8");
+
+        // The failure is output as a comment in place of the contribution, and remembered.
+        Assert.assertTrue(styles.contains("Contribution not available"));
+        Assert.assertEquals(1, processor.getContributionFailures().size());
+        UIThemeContributionFailure failure = processor.getContributionFailures().get(0);
+        Assert.assertEquals(broken.getQName().toString(), failure.getContribution());
+        Assert.assertEquals(broken.getTemplateDigest(), failure.getTemplateDigest());
+        Assert.assertFalse(failure.isExpired());
+
+        // The CSS is provisional i.e. it is not persisted or fingerprinted, and expires with the failure.
+        Assert.assertTrue(css.isProvisional());
+        Assert.assertEquals(failure.getExpiresAt(), css.getExpiresAt());
+        Assert.assertNull(processor.getUserThemesCSSFingerprint(user));
+        Assert.assertNull(processor.getAvailableUserThemesCSSFingerprint(user));
+        Assert.assertEquals(0, processor.getThemesCSSStore().getStoreDir().list(new SuffixFileFilter(".css")).length);
+        Assert.assertSame(css, processor.getThemesCSS(user));
+
+        // The reported failure does not expose file system paths.
+        String userHomePath = JenkinsUtil.getJenkinsUserHome(user).getAbsolutePath();
+        Assert.assertFalse(failure.getMessage().contains(userHomePath));
+        Assert.assertFalse(styles.contains(userHomePath));
+
+        // Regenerating does not recompile the broken contribution.
+        processor.deleteAllUserThemes();
+        styles = new String(processor.getThemesCSS(user).getBytes(), "UTF-8");
+        Assert.assertTrue(styles.contains("Contribution not available"));
+        Assert.assertEquals(1, processor.getContributionFailures().size());
+        Assert.assertSame(failure, processor.getContributionFailures().get(0));
+    }
+
+    @Test
+    public void test_transient_contribution_failures() throws IOException {
+        final UIThemeContribution slow = new UIThemeContribution("slow", "themeC", "themeCImpl", MockUIThemeContributor.class);
+        processor.addContributor(new UIThemeContributor() {
+            @Override
+            public void contribute(UIThemeSet themeSet) {
+                themeSet.registerTheme("themeC", "Theme C");
+                themeSet.registerThemeImpl("themeC", "themeCImpl", "Theme C Impl");
+                themeSet.contribute(slow);
+            }
+        });
+
+        // A Rhino compilation takes far longer than 1ms.
+        processor.getLESSProcessor().setCompileTimeout(1);
+
+        User user = createUser("tfennelly");
+        ThemesCSS css = processor.getThemesCSS(user);
+
+        // The timeout is output in place of the contribution, but not remembered as a failure, and the
+        // CSS has already expired i.e. is not cached, persisted or fingerprinted.
+        Assert.assertTrue(new String(css.getBytes(), "UTF-8").contains("Contribution not available"));
+        Assert.assertTrue(processor.getContributionFailures().isEmpty());
+        Assert.assertTrue(css.isExpired());
+        Assert.assertNull(processor.getAvailableUserThemesCSSFingerprint(user));
+        Assert.assertEquals(0, processor.getThemesCSSStore().getStoreDir().list(new SuffixFileFilter(".css")).length);
+
+        // So the contribution is compiled on the next request.
+        processor.getLESSProcessor().setCompileTimeout(0);
+        ThemesCSS regeneratedCss = processor.getThemesCSS(user);
+        Assert.assertNotSame(css, regeneratedCss);
+        Assert.assertFalse(regeneratedCss.isProvisional());
+        Assert.assertFalse(new String(regeneratedCss.getBytes(), "UTF-8").contains("Contribution not available"));
+        Assert.assertEquals(regeneratedCss.getETag(), processor.getUserThemesCSSFingerprint(user));
+        Assert.assertEquals(1, processor.getThemesCSSStore().getStoreDir().list(new SuffixFileFilter(".css")).length);
+    }
+
     private void assertDefaultStylesOnly(File cssFile) throws IOException {
         String styles = FileUtils.readFileToString(cssFile, "UTF-8");
 
@@ -197,7 +486,7 @@ public class UIThemesProcessorTest {
     }
 
     private File getUserThemesFile(User user) {
-        return UIThemesProcessor.getUserThemesCSSFile(JenkinsUtil.getJenkinsUserHome(user));
+        return UIThemesProcessor.getUserThemesCSSRefFile(JenkinsUtil.getJenkinsUserHome(user));
     }
 
     private User createUser(String username) {
@@ -0,0 +1,138 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins UI Themes plugin contributors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.uithemes.jelly;
+
+import org.jenkinsci.plugins.uithemes.css.ThemesCSS;
+import org.junit.Before;
+import org.junit.Test;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.mockito.Mockito;
+
+import javax.servlet.ServletOutputStream;
+
+public class CSSStaplerResponseTest {
+
+    private ThemesCSS css;
+    private StaplerRequest request;
+    private StaplerResponse response;
+    private ServletOutputStream outputStream;
+
+    @Before
+    public void setup() throws Exception {
+        css = new ThemesCSS("body { color: red; }".getBytes("UTF-8"), "gzipped".getBytes("UTF-8"), "1234", System.currentTimeMillis());
+
+        request = Mockito.mock(StaplerRequest.class);
+        response = Mockito.mock(StaplerResponse.class);
+        outputStream = Mockito.mock(ServletOutputStream.class);
+        Mockito.when(request.getDateHeader("If-Modified-Since")).thenReturn(-1L);
+        Mockito.when(response.getOutputStream()).thenReturn(outputStream);
+    }
+
+    @Test
+    public void test_no_validators() throws Exception {
+        new CSSStaplerResponse(css).generateResponse(request, response, null);
+
+        Mockito.verify(response).setHeader("ETag", "\"1234\"");
+        Mockito.verify(response, Mockito.never()).setStatus(304);
+        Mockito.verify(outputStream).write(css.getBytes());
+    }
+
+    @Test
+    public void test_if_none_match() throws Exception {
+        Mockito.when(request.getHeader("If-None-Match")).thenReturn("\"abcd\", W/\"1234\"");
+        new CSSStaplerResponse(css).generateResponse(request, response, null);
+
+        Mockito.verify(response).setStatus(304);
+        Mockito.verify(response, Mockito.never()).getOutputStream();
+    }
+
+    @Test
+    public void test_if_none_match_changed() throws Exception {
+        Mockito.when(request.getHeader("If-None-Match")).thenReturn("\"abcd\"");
+        // If-None-Match takes precedence, so If-Modified-Since should be ignored.
+        Mockito.when(request.getDateHeader("If-Modified-Since")).thenReturn(System.currentTimeMillis());
+        new CSSStaplerResponse(css).generateResponse(request, response, null);
+
+        Mockito.verify(response, Mockito.never()).setStatus(304);
+        Mockito.verify(outputStream).write(css.getBytes());
+    }
+
+    @Test
+    public void test_if_modified_since() throws Exception {
+        Mockito.when(request.getDateHeader("If-Modified-Since")).thenReturn(css.getLastModified());
+        new CSSStaplerResponse(css).generateResponse(request, response, null);
+        Mockito.verify(response).setStatus(304);
+
+        Mockito.reset(response);
+        Mockito.when(response.getOutputStream()).thenReturn(outputStream);
+        Mockito.when(request.getDateHeader("If-Modified-Since")).thenReturn(css.getLastModified() - 5000);
+        new CSSStaplerResponse(css).generateResponse(request, response, null);
+        Mockito.verify(response, Mockito.never()).setStatus(304);
+    }
+
+    @Test
+    public void test_immutable() throws Exception {
+        new CSSStaplerResponse(css).setImmutable(true).generateResponse(request, response, null);
+        Mockito.verify(response).setHeader("Cache-Control", "public, max-age=31536000, immutable");
+
+        Mockito.reset(response);
+        Mockito.when(response.getOutputStream()).thenReturn(outputStream);
+        new CSSStaplerResponse(css).generateResponse(request, response, null);
+        Mockito.verify(response).setHeader("Cache-Control", "private, no-cache");
+    }
+
+    @Test
+    public void test_provisional() throws Exception {
+        byte[] cssBytes = "body { color: red; }".getBytes("UTF-8");
+
+        // Never immutable, even on a fingerprinted URL.
+        new CSSStaplerResponse(ThemesCSS.createProvisional(cssBytes, System.currentTimeMillis() + 60000)).setImmutable(true).generateResponse(request, response, null);
+        Mockito.verify(response).setHeader("Cache-Control", "private, no-cache");
+
+        // And not stored at all once expired.
+        Mockito.reset(response);
+        Mockito.when(response.getOutputStream()).thenReturn(outputStream);
+        new CSSStaplerResponse(ThemesCSS.createProvisional(cssBytes, System.currentTimeMillis())).generateResponse(request, response, null);
+        Mockito.verify(response).setHeader("Cache-Control", "private, no-store");
+    }
+
+    @Test
+    public void test_gzip() throws Exception {
+        Mockito.when(request.getHeader("Accept-Encoding")).thenReturn("deflate, gzip");
+        new CSSStaplerResponse(css).generateResponse(request, response, null);
+        Mockito.verify(response).setHeader("Content-Encoding", "gzip");
+        Mockito.verify(response).setHeader("ETag", "\"1234-gzip\"");
+        Mockito.verify(response).setHeader("Vary", "Accept-Encoding");
+        Mockito.verify(outputStream).write(css.getGzipBytes());
+
+        // gzip explicitly refused
+        Mockito.reset(response);
+        Mockito.when(response.getOutputStream()).thenReturn(outputStream);
+        Mockito.when(request.getHeader("Accept-Encoding")).thenReturn("gzip;q=0, deflate");
+        new CSSStaplerResponse(css).generateResponse(request, response, null);
+        Mockito.verify(response, Mockito.never()).setHeader("Content-Encoding", "gzip");
+        Mockito.verify(response).setHeader("ETag", "\"1234\"");
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins UI Themes plugin contributors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.uithemes.less;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.lesscss.LessException;
+
+public class JavaLESSCompilerTest {
+
+    private JavaLESSCompiler compiler = new JavaLESSCompiler();
+
+    @Test
+    public void test_variables_and_nesting() throws LessException {
+        String css = compiler.compile(
+                "@rootURL: '/jenkins';\n" +
+                "@base: #5B83AD;\n" +
+                "@light: @base + #111; // a comment\n" +
+                "#banner, .banner {\n" +
+                "  color: @light;\n" +
+                "  background: url('@{rootURL}/images/a.png');\n" +
+                "  &:hover { color: darken(#eee, 10%); }\n" +
+                "  > .logo { width: (@width * 2); }\n" +
+                "}\n" +
+                "@width: 150px;\n");
+
+        Assert.assertEquals(
+                "#banner,\n" +
+                ".banner {\n" +
+                "  color: #6c94be;\n" +
+                "  background: url('/jenkins/images/a.png');\n" +
+                "}\n" +
+                "#banner:hover,\n" +
+                ".banner:hover {\n" +
+                "  color: #d5d5d5;\n" +
+                "}\n" +
+                "#banner > .logo,\n" +
+                ".banner > .logo {\n" +
+                "  width: 300px;\n" +
+                "}\n", css);
+    }
+
+    @Test
+    public void test_mixins() throws LessException {
+        String css = compiler.compile(
+                ".orb(@color; @size: 16) {\n" +
+                "  .orb-@{size} { background: fade(@color, 50%); width: unit(@size - 2, px); }\n" +
+                "}\n" +
+                ".rounded { border-radius: 50%; }\n" +
+                ".orb(#ff0000);\n" +
+                ".orb(#0000ff; 24);\n" +
+                ".icon { .rounded; margin: 0 -1px; }\n");
+
+        Assert.assertEquals(
+                ".rounded {\n" +
+                "  border-radius: 50%;\n" +
+                "}\n" +
+                ".orb-16 {\n" +
+                "  background: rgba(255, 0, 0, 0.5);\n" +
+                "  width: 14px;\n" +
+                "}\n" +
+                ".orb-24 {\n" +
+                "  background: rgba(0, 0, 255, 0.5);\n" +
+                "  width: 22px;\n" +
+                "}\n" +
+                ".icon {\n" +
+                "  border-radius: 50%;\n" +
+                "  margin: 0 -1px;\n" +
+                "}\n", css);
+    }
+
+    @Test
+    public void test_at_rules() throws LessException {
+        String css = compiler.compile(
+                "@-webkit-keyframes spin {\n" +
+                "  0% { -webkit-transform: rotate(0deg); }\n" +
+                "  100% { -webkit-transform: rotate(360deg); }\n" +
+                "}\n" +
+                "/* keep me */\n");
+
+        Assert.assertEquals(
+                "@-webkit-keyframes spin {\n" +
+                "  0% {\n" +
+                "    -webkit-transform: rotate(0deg);\n" +
+                "  }\n" +
+                "  100% {\n" +
+                "    -webkit-transform: rotate(360deg);\n" +
+                "  }\n" +
+                "}\n" +
+                "/* keep me */\n", css);
+    }
+
+    @Test
+    public void test_unsupported() {
+        assertUnsupported("#a { color: @undefined; }");
+        assertUnsupported(".m(@a) when (@a > 1) { color: red; }");
+        assertUnsupported("#a { font: 12px/20px Arial; }");
+        assertUnsupported("#a { color: contrast(#000); }");
+        assertUnsupported("#a { &:extend(.b); }");
+        assertUnsupported("#a { .undefined-mixin; }");
+        assertUnsupported("#a { @media print { color: red; } }");
+    }
+
+    private void assertUnsupported(String less) {
+        try {
+            compiler.compile(less);
+            Assert.fail("Expected LessException for: " + less);
+        } catch (LessException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins UI Themes plugin contributors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.uithemes.less;
+
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.uithemes.UIThemeContributor;
+import org.jenkinsci.plugins.uithemes.model.UIThemeContribution;
+import org.jenkinsci.plugins.uithemes.model.UIThemeImplSpec;
+import org.jenkinsci.plugins.uithemes.model.UIThemeImplSpecProperty;
+import org.jenkinsci.plugins.uithemes.model.UIThemeImplementation;
+import org.jenkinsci.plugins.uithemes.model.UIThemeSet;
+import org.jenkinsci.plugins.uithemes.util.JenkinsUtil;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+public class LESSPrecompilerTest {
+
+    private static final File OUTPUT_DIR = new File("./target/test-classes");
+
+    private UIThemeImplementation impl;
+    private UIThemeContribution contribution;
+
+    @Before
+    public void setup() throws NoSuchMethodException, IOException {
+        JenkinsUtil.JenkinsUtilTestSetup.setup();
+        impl = new UIThemeImplementation("themeA", "themeAImpl", "Theme A Impl", "Theme A Impl")
+                .setThemeImplSpec(new UIThemeImplSpec()
+                        .addProperty("color", new UIThemeImplSpecProperty().setDefaultValue("#123456")));
+        contribution = new UIThemeContribution("contrib2", "themeA", "themeAImpl", LESSPrecompilerTest.class);
+    }
+
+    @Test
+    public void test_precompile() throws Exception {
+        LESSPrecompiler precompiler = new LESSPrecompiler(OUTPUT_DIR, new File("./target/uithemes-precompile"));
+
+        Assert.assertEquals(1, precompiler.precompile(new UIThemeContributor() {
+            @Override
+            public void contribute(UIThemeSet themeSet) {
+                // Note the theme itself is not registered.
+                themeSet.registerThemeImpl("themeA", "themeAImpl", "Theme A Impl").setThemeImplSpec(impl.getThemeImplSpec());
+                themeSet.contribute(contribution);
+            }
+        }));
+
+        File cssFile = new File(OUTPUT_DIR, LESSPrecompiler.getPrecompiledCSSPath(contribution));
+        String css = FileUtils.readFileToString(cssFile, "UTF-8");
+        Map<String, String> defaultConfig = contribution.getCompileConfig(impl, UIThemeContribution.getDefaultConfig(impl));
+        Assert.assertTrue(css.startsWith(LESSPrecompiler.getHeader(contribution.getTemplateDigest(), LESSPrecompiler.getConfigDigest(defaultConfig))));
+        Assert.assertTrue(css.contains(LESSPrecompiler.ROOT_URL_TOKEN + "/images/precompiled.png"));
+
+        // The precompiled CSS should be used for the default config, with the root URL token replaced.
+        JenkinsUtil.JenkinsUtilTestSetup.setup();
+        String precompiledCSS = contribution.getPrecompiledCSS(impl, UIThemeContribution.getDefaultConfig(impl), JenkinsUtil.getRootURL());
+        Assert.assertNotNull(precompiledCSS);
+        Assert.assertTrue(precompiledCSS.contains("#123456"));
+        Assert.assertTrue(precompiledCSS.contains("/jenkins/images/precompiled.png"));
+        Assert.assertFalse(precompiledCSS.contains(LESSPrecompiler.ROOT_URL_TOKEN));
+
+        // But not for any other config.
+        Map<String, String> config = new HashMap<String, String>();
+        config.put("color", "#654321");
+        Assert.assertNull(contribution.getPrecompiledCSS(impl, config, JenkinsUtil.getRootURL()));
+
+        // Nor if it was precompiled with a different (build-time default) config.
+        FileUtils.write(cssFile, LESSPrecompiler.getHeader(contribution.getTemplateDigest(), LESSPrecompiler.getConfigDigest(config)) +
+                css.substring(css.indexOf(" */\n") + 4), "UTF-8");
+        UIThemeContribution rebuiltContribution = new UIThemeContribution("contrib2", "themeA", "themeAImpl", LESSPrecompilerTest.class);
+        Assert.assertNull(rebuiltContribution.getPrecompiledCSS(impl, UIThemeContribution.getDefaultConfig(impl), JenkinsUtil.getRootURL()));
+        Assert.assertNotNull(rebuiltContribution.getPrecompiledCSS(impl, config, JenkinsUtil.getRootURL()));
+        FileUtils.deleteQuietly(cssFile);
+    }
+
+    @Test
+    public void test_no_precompiled_css() {
+        UIThemeContribution contribution = new UIThemeContribution("contrib1", "themeA", "themeAImpl", LESSPrecompilerTest.class);
+        Assert.assertNull(contribution.getPrecompiledCSS(impl, UIThemeContribution.getDefaultConfig(impl), JenkinsUtil.getRootURL()));
+    }
+}
@@ -23,12 +23,14 @@
  */
 package org.jenkinsci.plugins.uithemes.less;
 
+import org.apache.commons.io.FileUtils;
 import org.jenkinsci.plugins.uithemes.util.JenkinsUtil;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.lesscss.LessException;
 
+import java.io.File;
 import java.io.IOException;
 
 /**
@@ -50,6 +52,121 @@ public class LESSProcessorTest {
         Assert.assertEquals(PROCESSED_CSS, processed.trim());
     }
 
+    @Test
+    public void test_java_engine() throws IOException, LessException {
+        LESSProcessor lessProcessor = new LESSProcessor().setEngine(LESSProcessor.ENGINE_JAVA);
+
+        // Same result as the Rhino engine, without falling back.
+        String processed = lessProcessor.process(new URLResource("/less/file1.less", NullContribution.instance));
+        Assert.assertEquals(PROCESSED_CSS, processed.trim());
+        Assert.assertEquals(1, lessProcessor.getJavaCompileCount());
+        Assert.assertEquals(0, lessProcessor.getJavaFallbackCount());
+
+        // Unsupported LESS (here, an undefined variable) falls back to the Rhino engine.
+        try {
+            lessProcessor.process(new URLResource("/less/plugin2.less", NullContribution.instance));
+            Assert.fail("Expected LessException");
+        } catch (LessException e) {
+            Assert.assertEquals(1, lessProcessor.getJavaFallbackCount());
+        }
+    }
+
+    @Test
+    public void test_warm_up() throws IOException, LessException {
+        LESSProcessor lessProcessor = new LESSProcessor(1, 60000);
+
+        lessProcessor.warmUp();
+
+        // Warm-up uses the pooled compiler, returns it to the pool and is not counted as a compilation.
+        Assert.assertEquals(1, lessProcessor.getCreatedCount());
+        Assert.assertEquals(1, lessProcessor.getIdleCount());
+        Assert.assertEquals(0, lessProcessor.getCompileCount());
+        Assert.assertEquals(PROCESSED_CSS, lessProcessor.process(new URLResource("/less/file1.less", NullContribution.instance)).trim());
+    }
+
+    @Test
+    public void test_compile_timeout() throws IOException, LessException {
+        // A Rhino compilation takes far longer than 1ms.
+        LESSProcessor lessProcessor = new LESSProcessor(1, 60000).setCompileTimeout(1);
+
+        try {
+            lessProcessor.process(new URLResource("/less/file1.less", NullContribution.instance));
+            Assert.fail("Expected LESSCompileTimeoutException");
+        } catch (LESSCompileTimeoutException e) {
+            Assert.assertEquals(1, lessProcessor.getCompileTimeoutCount());
+        }
+
+        // The busy compiler is dropped from the pool and replaced on demand.
+        Assert.assertEquals(0, lessProcessor.getCreatedCount());
+        Assert.assertEquals(0, lessProcessor.getActiveCount());
+        lessProcessor.setCompileTimeout(0);
+        Assert.assertEquals(PROCESSED_CSS, lessProcessor.process(new URLResource("/less/file1.less", NullContribution.instance)).trim());
+        Assert.assertEquals(1, lessProcessor.getCreatedCount());
+    }
+
+    @Test
+    public void test_skip_unchanged() throws IOException, LessException {
+        LESSProcessor lessProcessor = new LESSProcessor(1, 60000);
+
+        Assert.assertEquals(PROCESSED_CSS, lessProcessor.process(new URLResource("/less/file1.less", NullContribution.instance)).trim());
+        Assert.assertEquals(PROCESSED_CSS, lessProcessor.process(new URLResource("/less/file1.less", NullContribution.instance)).trim());
+        Assert.assertEquals(1, lessProcessor.getCompileCount());
+        Assert.assertEquals(1, lessProcessor.getCompileSkipCount());
+
+        // A change to the resource content is picked up, even if the file timestamp does not change.
+        File lessFile = new File("./target/less-skip-unchanged/theme.less");
+        FileUtils.write(lessFile, ".a { color: #111; }", "UTF-8");
+        long lastModified = lessFile.lastModified();
+        Assert.assertTrue(lessProcessor.process(new URLResource(lessFile.toURI().toURL(), NullContribution.instance)).contains("#111"));
+        FileUtils.write(lessFile, ".a { color: #222; }", "UTF-8");
+        lessFile.setLastModified(lastModified);
+        Assert.assertTrue(lessProcessor.process(new URLResource(lessFile.toURI().toURL(), NullContribution.instance)).contains("#222"));
+        Assert.assertEquals(3, lessProcessor.getCompileCount());
+    }
+
+    @Test
+    public void test_pool() throws Exception {
+        final LESSProcessor lessProcessor = new LESSProcessor(2, 60000);
+        final String[] results = new String[4];
+        final Throwable[] errors = new Throwable[results.length];
+        Thread[] threads = new Thread[results.length];
+
+        // The first compiler is created up front, the rest on demand.
+        Assert.assertEquals(1, lessProcessor.getCreatedCount());
+
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        results[index] = lessProcessor.process(new URLResource("/less/file1.less", NullContribution.instance));
+                    } catch (Throwable t) {
+                        errors[index] = t;
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int i = 0; i < results.length; i++) {
+            Assert.assertNull(errors[i]);
+            Assert.assertEquals(PROCESSED_CSS, results[i].trim());
+        }
+
+        // Never more compilers than the pool size, and all returned to the pool.
+        Assert.assertTrue(lessProcessor.getCreatedCount() <= 2);
+        Assert.assertEquals(0, lessProcessor.getActiveCount());
+        Assert.assertEquals(lessProcessor.getCreatedCount(), lessProcessor.getIdleCount());
+        // Compilations of the (unchanged) resource may have been skipped.
+        Assert.assertEquals(4, lessProcessor.getCompileCount() + lessProcessor.getCompileSkipCount());
+    }
+
     private static final String PROCESSED_CSS =
             "#header {\n" +
             "  color: #eeeeee;\n" +
@@ -23,10 +23,12 @@
  */
 package org.jenkinsci.plugins.uithemes.less;
 
+import org.apache.commons.io.IOUtils;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 
 /**
@@ -43,6 +45,33 @@ public class URLResourceTest {
         Assert.assertFalse(classpathResource.exists());
     }
 
+    @Test
+    public void test_exists_cached() throws IOException {
+        URL stringClassResURL = URLResourceTest.class.getResource("/java/lang/String.class");
+        URLResource classpathResource = new URLResource(stringClassResURL, NullContribution.instance);
+        Assert.assertTrue(classpathResource.exists());
+        Assert.assertTrue(classpathResource.exists());
+
+        // A missing resource is remembered as missing, and reading it gives no stream.
+        URLResource missingRes = (URLResource) classpathResource.createRelative("XXX.class");
+        Assert.assertFalse(missingRes.exists());
+        Assert.assertNull(missingRes.getInputStream());
+
+        URLResource.clearCache();
+        Assert.assertTrue(new URLResource(stringClassResURL, NullContribution.instance).exists());
+    }
+
+    @Test
+    public void test_getInputStream() throws IOException {
+        URLResource classpathResource = new URLResource("/less/file1.less", NullContribution.instance);
+        InputStream stream = classpathResource.getInputStream();
+        Assert.assertNotNull(stream);
+        stream.close();
+        Assert.assertTrue(classpathResource.exists());
+
+        Assert.assertNull(new URLResource("/less/xxx.less", NullContribution.instance).getInputStream());
+    }
+
     @Test
     public void test_createRelative() throws IOException {
         URLResource classpathResource = new URLResource("/less/file1.less", NullContribution.instance);
@@ -52,6 +81,24 @@ public class URLResourceTest {
         Assert.assertTrue(file2.exists());
     }
 
+    @Test
+    public void test_createRelative_classpath_cached() throws IOException {
+        URLResource classpathResource = new URLResource("/less/file1.less", NullContribution.instance);
+        URLResource variables1 = (URLResource) classpathResource.createRelative("/jenkins-themes/core/variables.less");
+        URLResource variables2 = (URLResource) classpathResource.createRelative("/jenkins-themes/core/variables.less");
+
+        Assert.assertEquals(variables1.getName(), variables2.getName());
+        Assert.assertTrue(variables2.exists());
+        String content1 = IOUtils.toString(variables1.getInputStream(), "UTF-8");
+        String content2 = IOUtils.toString(variables2.getInputStream(), "UTF-8");
+        Assert.assertTrue(content1.length() > 0);
+        Assert.assertEquals(content1, content2);
+
+        // Relative imports from a shared resource also resolve through the contributor.
+        URLResource relativeVariables = (URLResource) variables1.createRelative("./variables.less");
+        Assert.assertEquals(variables1.getName(), relativeVariables.getName());
+    }
+
     @Test
     public void test_createRelative_jar() throws IOException {
         URL stringClassResURL = URLResourceTest.class.getResource("/java/lang/String.class");
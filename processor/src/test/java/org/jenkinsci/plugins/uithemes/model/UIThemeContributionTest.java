@@ -23,9 +23,13 @@
  */
 package org.jenkinsci.plugins.uithemes.model;
 
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.plugins.uithemes.UIThemesProcessor;
+import org.jenkinsci.plugins.uithemes.less.LESSProcessor;
 import org.jenkinsci.plugins.uithemes.util.JenkinsUtil;
 import org.junit.Assert;
 import org.junit.Test;
+import org.lesscss.LessException;
 import org.lesscss.Resource;
 
 import java.io.File;
@@ -53,6 +57,19 @@ public class UIThemeContributionTest {
         Resource lessResource = themeContribution.createUserLessResource(new File(JenkinsUtil.JENKINS_USER_HOME, "tfennelly"), null);
         Assert.assertTrue(lessResource.getName().endsWith("users/tfennelly/themes/themeA/themeAImpl/theme.less"));
         Assert.assertTrue(lessResource.exists());
+        // Generated in memory. Nothing written to the user home.
+        Assert.assertFalse(UIThemesProcessor.getUserThemeImplLESSFile("themeA", "themeAImpl", new File(JenkinsUtil.JENKINS_USER_HOME, "tfennelly")).exists());
+        Assert.assertTrue(IOUtils.toString(lessResource.getInputStream(), "UTF-8").contains("#FFF"));
+    }
+
+    @Test
+    public void test_no_template() throws NoSuchMethodException, IOException {
+        JenkinsUtil.JenkinsUtilTestSetup.setup();
+        // No template for this contribution. Only found out when the template is first needed.
+        UIThemeContribution themeContribution = new UIThemeContribution("xxx", "themeA", "themeAImpl", UIThemeContributionTest.class);
+
+        Assert.assertNull(themeContribution.getTemplateDigest());
+        Assert.assertNull(themeContribution.createUserLessResource(new File(JenkinsUtil.JENKINS_USER_HOME, "tfennelly"), null));
     }
 
     @Test
@@ -79,4 +96,47 @@ public class UIThemeContributionTest {
             Assert.assertTrue(message.contains("> Theme Implementation Config: {} !!EMPTY!!"));
         }
     }
+
+    @Test
+    public void test_css_custom_properties() throws NoSuchMethodException, IOException, LessException {
+        JenkinsUtil.JenkinsUtilTestSetup.setup();
+        UIThemeImplementation impl = new UIThemeImplementation("themeA", "themeAImpl", "Theme A Impl", "Theme A Impl")
+                .setThemeImplSpec(new UIThemeImplSpec()
+                        .addProperty("color", new UIThemeImplSpecProperty()
+                                .setType(UIThemeImplSpecProperty.Type.COLOR)
+                                .setDefaultValue("123456")));
+        UIThemeContribution themeContribution = new UIThemeContribution("contrib2", "themeA", "themeAImpl", UIThemeContributionTest.class)
+                .setCSSCustomProperties(true);
+
+        // The template is compiled with the properties bound to CSS custom properties...
+        Map<String, String> compileConfig = themeContribution.getCompileConfig(impl, UIThemeContribution.getDefaultConfig(impl));
+        Assert.assertEquals("~\"var(--uithemes-themeA-themeAImpl-color)\"", compileConfig.get("color"));
+        Resource lessResource = themeContribution.createLessResource(new File(JenkinsUtil.JENKINS_USER_HOME, "tfennelly"), compileConfig);
+        String css = new LESSProcessor().process(lessResource);
+        Assert.assertTrue(css.contains("var(--uithemes-themeA-themeAImpl-color)"));
+
+        // ... and the config is applied through a :root block.
+        Map<String, String> config = new HashMap<String, String>();
+        config.put("color", "654321; } body { display: none");
+        Assert.assertEquals(":root {\n  --uithemes-themeA-themeAImpl-color: #123456;\n}\n",
+                themeContribution.createCSSCustomPropertiesBlock(impl, UIThemeContribution.getDefaultConfig(impl)));
+        // Values that are not a valid color fall back to the default value, so cannot break out of the declaration...
+        Assert.assertEquals(":root {\n  --uithemes-themeA-themeAImpl-color: #123456;\n}\n",
+                themeContribution.createCSSCustomPropertiesBlock(impl, config));
+        // ... or open a comment ...
+        config.put("color", "red /* ");
+        Assert.assertEquals(":root {\n  --uithemes-themeA-themeAImpl-color: #123456;\n}\n",
+                themeContribution.createCSSCustomPropertiesBlock(impl, config));
+        // ... or a string.
+        config.put("color", "\"red");
+        Assert.assertEquals(":root {\n  --uithemes-themeA-themeAImpl-color: #123456;\n}\n",
+                themeContribution.createCSSCustomPropertiesBlock(impl, config));
+
+        config.put("color", "654321");
+        Assert.assertEquals(":root {\n  --uithemes-themeA-themeAImpl-color: #654321;\n}\n",
+                themeContribution.createCSSCustomPropertiesBlock(impl, config));
+        config.put("color", "rgba(0, 0, 0, 0.5)");
+        Assert.assertEquals(":root {\n  --uithemes-themeA-themeAImpl-color: rgba(0, 0, 0, 0.5);\n}\n",
+                themeContribution.createCSSCustomPropertiesBlock(impl, config));
+    }
 }
@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins UI Themes plugin contributors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.uithemes.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BoundedCacheTest {
+
+    @Test
+    public void test_lru_eviction() {
+        BoundedCache<String, String> cache = newCache(10);
+
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        Assert.assertEquals(8, cache.getWeight());
+
+        // Access "a", making "b" the least recently used
+        Assert.assertEquals("aaaa", cache.get("a"));
+
+        cache.put("c", "cccc");
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(8, cache.getWeight());
+        Assert.assertEquals("aaaa", cache.get("a"));
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals("cccc", cache.get("c"));
+        Assert.assertEquals(3, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void test_replace_remove_clear() {
+        BoundedCache<String, String> cache = newCache(10);
+
+        cache.put("a", "aaaa");
+        Assert.assertEquals("aaaa", cache.put("a", "aa"));
+        Assert.assertEquals(2, cache.getWeight());
+        Assert.assertEquals("aa", cache.remove("a"));
+        Assert.assertEquals(0, cache.getWeight());
+
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void test_too_big() {
+        BoundedCache<String, String> cache = newCache(10);
+
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbbbbbbbbbb");
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals("aaaa", cache.get("a"));
+    }
+
+    private BoundedCache<String, String> newCache(long maxWeight) {
+        return new BoundedCache<String, String>(maxWeight) {
+            @Override
+            protected long weigh(String value) {
+                return value.length();
+            }
+        };
+    }
+}
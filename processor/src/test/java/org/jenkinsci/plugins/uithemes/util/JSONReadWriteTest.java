@@ -28,6 +28,9 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.File;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeMap;
 
 import static org.jenkinsci.plugins.uithemes.model.UserUIThemeConfiguration.UserUIThemeSelection;
 
@@ -61,4 +64,15 @@ public class JSONReadWriteTest {
         Assert.assertEquals("status-balls", themeConfiguration2.userThemes.get(1).themeName);
         Assert.assertEquals("css3-animated", themeConfiguration2.userThemes.get(1).implName);
     }
+
+    @Test
+    public void test_readWrite_bytes() throws Exception {
+        Map<String, String> config = new TreeMap<String, String>();
+        config.put("a", "1");
+        config.put("b", "\u00fc");
+
+        Assert.assertEquals("{\"a\":\"1\",\"b\":\"\u00fc\"}", JSONReadWrite.toString(config));
+        Assert.assertEquals(config, JSONReadWrite.fromBytes(JSONReadWrite.toUTF8Bytes(config), Charset.forName("UTF-8"), Map.class));
+        Assert.assertEquals(config, JSONReadWrite.fromBytes(JSONReadWrite.toString(config).getBytes("UTF-16"), Charset.forName("UTF-16"), Map.class));
+    }
 }
@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins UI Themes plugin contributors.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.uithemes.util;
+
+import freemarker.template.Template;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class TemplateUtilTest {
+
+    private static final String TEMPLATE_PATH = "/jenkins-themes/themeA/themeAImpl/contrib1/theme-template.less";
+
+    @Test
+    public void test_template_cached() {
+        Template template = TemplateUtil.getLESSTemplate(TEMPLATE_PATH, TemplateUtilTest.class);
+
+        Assert.assertNotNull(template);
+        Assert.assertSame(template, TemplateUtil.getLESSTemplate(TEMPLATE_PATH, TemplateUtilTest.class));
+        Assert.assertEquals(DigestUtil.sha1(TemplateUtil.loadLESSTemplateText(TEMPLATE_PATH, TemplateUtilTest.class)), TemplateUtil.getTemplateDigest(template));
+        Assert.assertEquals(TemplateUtilTest.class.getResource(TEMPLATE_PATH), TemplateUtil.getTemplateURL(template));
+
+        // Reloaded after the cache is cleared.
+        TemplateUtil.clearCache();
+        Template reloadedTemplate = TemplateUtil.getLESSTemplate(TEMPLATE_PATH, TemplateUtilTest.class);
+        Assert.assertNotSame(template, reloadedTemplate);
+        Assert.assertEquals(TemplateUtil.getTemplateDigest(template), TemplateUtil.getTemplateDigest(reloadedTemplate));
+    }
+
+    @Test
+    public void test_renderToBytes() throws Exception {
+        Template template = TemplateUtil.getLESSTemplate(TEMPLATE_PATH, TemplateUtilTest.class);
+        Map<String, String> model = new HashMap<String, String>();
+
+        // The render buffer is reused, so render more than once.
+        model.put("backgroudColor", "#FFF");
+        Assert.assertEquals("@backgroudColor: #FFF;", new String(TemplateUtil.renderToBytes(template, model), "UTF-8").trim());
+        model.put("backgroudColor", "#000");
+        Assert.assertEquals("@backgroudColor: #000;", new String(TemplateUtil.renderToBytes(template, model), "UTF-8").trim());
+    }
+
+    @Test
+    public void test_template_not_found() {
+        Assert.assertNull(TemplateUtil.getLESSTemplate("/jenkins-themes/xxx/theme-template.less", TemplateUtilTest.class));
+    }
+}